@@ -0,0 +1,70 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import au.com.clearboxsystems.maven.plugins.nodejs.ClosureCompilerTask;
+import au.com.clearboxsystems.maven.plugins.nodejs.NodeJsMojoBase;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to turn a closure task into compiler arguments, and into a runner that has parsed them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArgumentsBenchmark {
+	@Param({"1000", "10000"})
+	public int files;
+
+	private ClosureCompilerTask task;
+	private BenchmarkMojo mojo;
+
+	@Setup
+	public void setup() throws IOException {
+		File root = Fixtures.sourceTree(files);
+		task = BenchmarkMojo.closureTask(new File(Fixtures.getDirectory(), "arguments.js"), "SIMPLE_OPTIMIZATIONS", root);
+		mojo = new BenchmarkMojo(task);
+	}
+
+	@Benchmark
+	public String[] buildClosureCompilerArguments() throws MojoExecutionException {
+		return mojo.buildClosureCompilerArguments(task);
+	}
+
+	@Benchmark
+	public NodeJsMojoBase.ClosureCompilerRunner buildClosureCompilerRunner() throws MojoExecutionException {
+		return mojo.buildClosureCompilerRunner(task);
+	}
+}
@@ -0,0 +1,59 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import au.com.clearboxsystems.maven.plugins.nodejs.ClosureCompilerTask;
+import au.com.clearboxsystems.maven.plugins.nodejs.ClosureCompilerWorker;
+import au.com.clearboxsystems.maven.plugins.nodejs.NodeJsWatcherMojo;
+import au.com.clearboxsystems.maven.plugins.nodejs.Task;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gives the benchmarks access to the configuration and internals of the mojos
+ */
+public class BenchmarkMojo extends NodeJsWatcherMojo {
+	public BenchmarkMojo(Task... tasks) {
+		this.tasks = new ArrayList<>(Arrays.asList(tasks));
+		setLog(new QuietLog());
+	}
+
+	public void setQuietPeriod(long quietPeriod) {
+		this.quietPeriod = quietPeriod;
+	}
+
+	public ClosureCompilerWorker keepWorker(ClosureCompilerTask task) {
+		return keepCompilerWorker(task);
+	}
+
+	/**
+	 * A closure task over the given sources, configured as the plugin's parameter defaults would
+	 */
+	public static ClosureCompilerTask closureTask(File output, String compilationLevel, File... sources) {
+		ClosureCompilerTask task = new ClosureCompilerTask();
+		List<File> files = new ArrayList<>(Arrays.asList(sources));
+		task.sources = files;
+		task.outputFile = output;
+		task.compilationLevel = compilationLevel;
+		task.formatting = "";
+		task.warningLevel = "QUIET";
+		return task;
+	}
+}
@@ -0,0 +1,93 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import au.com.clearboxsystems.maven.plugins.nodejs.ClosureCompilerTask;
+import au.com.clearboxsystems.maven.plugins.nodejs.ClosureCompilerWorker;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles of a generated bundle. A cold compile reads and parses every input, as the run goal
+ * does; a warm compile rebuilds after one module changed, with the sources kept in a worker as the
+ * watch goal does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CompileBenchmark {
+	@Param({"50", "200"})
+	public int modules;
+
+	@Param({"SIMPLE_OPTIMIZATIONS", "ADVANCED_OPTIMIZATIONS"})
+	public String compilationLevel;
+
+	private ClosureCompilerTask coldTask;
+	private ClosureCompilerTask warmTask;
+	private BenchmarkMojo mojo;
+	private ClosureCompilerWorker worker;
+	private File changed;
+	private int revision;
+
+	@Setup
+	public void setup() throws IOException, MojoExecutionException {
+		File root = Fixtures.bundle(modules);
+		// the warm benchmark edits a module, so it gets its own copy of the bundle
+		File warmRoot = new File(Fixtures.getDirectory(), "bundle-" + modules + "-warm");
+		FileUtils.copyDirectory(root, warmRoot);
+		changed = new File(warmRoot, "module" + (modules / 2) + ".js");
+
+		coldTask = BenchmarkMojo.closureTask(new File(Fixtures.getDirectory(), "cold-" + modules + ".js"), compilationLevel, root);
+		warmTask = BenchmarkMojo.closureTask(new File(Fixtures.getDirectory(), "warm-" + modules + ".js"), compilationLevel, warmRoot);
+		mojo = new BenchmarkMojo(coldTask, warmTask);
+		worker = mojo.keepWorker(warmTask);
+		if (!mojo.buildClosureCompilerRunner(warmTask).myRun()) {
+			throw new IllegalStateException("Compiling the bundle failed");
+		}
+	}
+
+	@Benchmark
+	public boolean coldCompile() throws MojoExecutionException {
+		return mojo.buildClosureCompilerRunner(coldTask).myRun();
+	}
+
+	@Benchmark
+	public boolean warmCompile() throws IOException, MojoExecutionException {
+		Fixtures.writeModule(changed, modules / 2, ++revision);
+		worker.invalidate(Collections.singleton(changed));
+		return mojo.buildClosureCompilerRunner(warmTask).myRun();
+	}
+}
@@ -0,0 +1,129 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * Generates the source trees the benchmarks run against. Fixtures are written below the directory
+ * in the nodejs.fixtures system property (target/fixtures by default) and reused by later runs.
+ */
+public class Fixtures {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int FILES_PER_DIRECTORY = 100;
+	private static final int FUNCTIONS_PER_MODULE = 20;
+
+	public static File getDirectory() {
+		return new File(System.getProperty("nodejs.fixtures", "target/fixtures")).getAbsoluteFile();
+	}
+
+	/**
+	 * A tree of small files, 100 to a directory and two directories deep. One in ten files is not
+	 * javascript and one in fifty is a dotfile, so the scanner has something to filter.
+	 */
+	public static File sourceTree(int files) throws IOException {
+		File root = new File(getDirectory(), "tree-" + files);
+		File marker = new File(root, ".complete");
+		if (marker.isFile()) {
+			return root;
+		}
+		FileUtils.deleteDirectory(root);
+		for (int i = 0; i < files; i++) {
+			File dir = new File(root, "d" + (i / (FILES_PER_DIRECTORY * 100)) + File.separator + "d" + (i / FILES_PER_DIRECTORY % 100));
+			if (i % FILES_PER_DIRECTORY == 0) {
+				dir.mkdirs();
+			}
+			String name;
+			if (i % 50 == 7) {
+				name = ".module" + i + ".js";
+			} else if (i % 10 == 9) {
+				name = "style" + i + ".css";
+			} else {
+				name = "module" + i + ".js";
+			}
+			Files.write(new File(dir, name).toPath(), ("var m" + i + " = " + i + ";\n").getBytes(UTF8));
+		}
+		Files.write(marker.toPath(), new byte[0]);
+		return root;
+	}
+
+	/**
+	 * A project of javascript modules that call into each other, large enough for the compiler to
+	 * do real work. Each module exports its first function so advanced optimizations keep it.
+	 */
+	public static File bundle(int modules) throws IOException {
+		File root = new File(getDirectory(), "bundle-" + modules);
+		File marker = new File(root, ".complete");
+		if (marker.isFile()) {
+			return root;
+		}
+		FileUtils.deleteDirectory(root);
+		root.mkdirs();
+		for (int i = 0; i < modules; i++) {
+			writeModule(new File(root, "module" + i + ".js"), i, 0);
+		}
+		Files.write(marker.toPath(), new byte[0]);
+		return root;
+	}
+
+	/**
+	 * Writes one bundle module, revision changes the generated code so the compiler sees an edit
+	 */
+	public static void writeModule(File file, int module, int revision) throws IOException {
+		try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), UTF8)) {
+			for (int j = 0; j < FUNCTIONS_PER_MODULE; j++) {
+				String name = "module" + module + "_f" + j;
+				writer.write("/**\n * @param {number} x\n * @return {number}\n */\n");
+				writer.write("function " + name + "(x) {\n");
+				writer.write("\tvar total = " + revision + ";\n");
+				writer.write("\tfor (var k = 0; k < x; k++) {\n\t\ttotal += k * " + (j + 1) + ";\n\t}\n");
+				if (module > 0) {
+					writer.write("\treturn total + module" + (module - 1) + "_f" + j + "(x - 1);\n");
+				} else {
+					writer.write("\treturn total + '" + name + "'.length;\n");
+				}
+				writer.write("}\n\n");
+			}
+			writer.write("window['module" + module + "'] = module" + module + "_f0;\n");
+		}
+	}
+
+	/**
+	 * Generates fixtures ahead of a benchmark run, for example: tree 500000 bundle 200
+	 */
+	public static void main(String[] args) throws IOException {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			int size = Integer.parseInt(args[i + 1]);
+			File root;
+			if (args[i].equals("tree")) {
+				root = sourceTree(size);
+			} else if (args[i].equals("bundle")) {
+				root = bundle(size);
+			} else {
+				throw new IllegalArgumentException("Unknown fixture " + args[i] + ", expected tree or bundle");
+			}
+			System.out.println(root);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Drops debug and info output so the plugin's logging does not end up in the measurements
+ */
+public class QuietLog implements Log {
+	public boolean isDebugEnabled() {
+		return false;
+	}
+
+	public void debug(CharSequence content) {
+	}
+
+	public void debug(CharSequence content, Throwable error) {
+	}
+
+	public void debug(Throwable error) {
+	}
+
+	public boolean isInfoEnabled() {
+		return false;
+	}
+
+	public void info(CharSequence content) {
+	}
+
+	public void info(CharSequence content, Throwable error) {
+	}
+
+	public void info(Throwable error) {
+	}
+
+	public boolean isWarnEnabled() {
+		return true;
+	}
+
+	public void warn(CharSequence content) {
+		System.err.println("[warn] " + content);
+	}
+
+	public void warn(CharSequence content, Throwable error) {
+		System.err.println("[warn] " + content);
+		error.printStackTrace();
+	}
+
+	public void warn(Throwable error) {
+		error.printStackTrace();
+	}
+
+	public boolean isErrorEnabled() {
+		return true;
+	}
+
+	public void error(CharSequence content) {
+		System.err.println("[error] " + content);
+	}
+
+	public void error(CharSequence content, Throwable error) {
+		System.err.println("[error] " + content);
+		error.printStackTrace();
+	}
+
+	public void error(Throwable error) {
+		error.printStackTrace();
+	}
+}
@@ -0,0 +1,76 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import au.com.clearboxsystems.maven.plugins.nodejs.SourceScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to find the javascript files below a source directory
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+	@Param({"10000", "100000", "500000"})
+	public int files;
+
+	private File root;
+	private BenchmarkMojo mojo;
+
+	@Setup
+	public void setup() throws IOException {
+		root = Fixtures.sourceTree(files);
+		mojo = new BenchmarkMojo();
+	}
+
+	@Benchmark
+	public List<String> parallelScan() throws IOException {
+		return new SourceScanner(null, null, true).scan(root);
+	}
+
+	@Benchmark
+	public List<String> sequentialScan() throws IOException {
+		return new SourceScanner(null, null, false).scan(root);
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public List<String> findJavascriptFilesRecursively() {
+		List<String> paths = new ArrayList<>();
+		mojo.findJavascriptFilesRecursively(root, paths);
+		return paths;
+	}
+}
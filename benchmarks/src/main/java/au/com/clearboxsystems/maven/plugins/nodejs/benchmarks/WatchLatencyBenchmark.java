@@ -0,0 +1,128 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import au.com.clearboxsystems.maven.plugins.nodejs.ClosureCompilerTask;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from saving a source file until the watch goal has written the rebuilt output, including
+ * the quiet period the watcher waits for further changes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WatchLatencyBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+	@Param({"50", "200"})
+	public long quietPeriod;
+
+	@Param({"50"})
+	public int modules;
+
+	private File root;
+	private File source;
+	private File output;
+	private Thread watcher;
+	private int revision;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		root = Files.createTempDirectory("watch-latency").toFile();
+		File sources = new File(new File(root, "project"), "src");
+		FileUtils.copyDirectory(Fixtures.bundle(modules), sources);
+		source = new File(sources, "changed.js");
+		Files.write(source.toPath(), "var marker = 'revision0';\n".getBytes(UTF8));
+		output = new File(root, "out" + File.separator + "compiled.js");
+		output.getParentFile().mkdirs();
+
+		ClosureCompilerTask task = BenchmarkMojo.closureTask(output, "WHITESPACE_ONLY", sources);
+		task.watch = true;
+		// compile on every change, even when a rewrite leaves the size and timestamp unchanged
+		task.incremental = false;
+		final BenchmarkMojo mojo = new BenchmarkMojo(task);
+		mojo.setQuietPeriod(quietPeriod);
+		mojo.keepWorker(task);
+		mojo.addWatchForTask(task);
+
+		watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mojo.watch(null);
+				} catch (InterruptedException ex) {
+					// benchmark finished
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		}, "watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	@Benchmark
+	public void rebuildAfterChange() throws IOException, InterruptedException {
+		String marker = "revision" + (++revision);
+		Files.write(source.toPath(), ("var marker = '" + marker + "';\n").getBytes(UTF8));
+		long deadline = System.nanoTime() + TIMEOUT;
+		while (!contains(output, marker)) {
+			if (System.nanoTime() > deadline) {
+				throw new IllegalStateException("The watcher did not rebuild " + output);
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException, InterruptedException {
+		watcher.interrupt();
+		watcher.join(TimeUnit.SECONDS.toMillis(10));
+		FileUtils.deleteDirectory(root);
+	}
+
+	private static boolean contains(File file, String marker) throws IOException {
+		if (!file.isFile()) {
+			return false;
+		}
+		return new String(Files.readAllBytes(file.toPath()), UTF8).contains(marker);
+	}
+}
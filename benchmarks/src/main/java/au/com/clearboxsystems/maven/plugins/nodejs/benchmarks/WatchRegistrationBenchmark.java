@@ -0,0 +1,81 @@
+package au.com.clearboxsystems.maven.plugins.nodejs.benchmarks;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import au.com.clearboxsystems.maven.plugins.nodejs.ClosureCompilerTask;
+import au.com.clearboxsystems.maven.plugins.nodejs.SourceScanner;
+import au.com.clearboxsystems.maven.plugins.nodejs.SourceWatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to start watching a source tree, with file change notifications and with polling
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WatchRegistrationBenchmark {
+	@Param({"10000", "100000"})
+	public int files;
+
+	private File root;
+	private ClosureCompilerTask task;
+	private SourceScanner filter;
+
+	@Setup
+	public void setup() throws IOException {
+		root = Fixtures.sourceTree(files);
+		task = BenchmarkMojo.closureTask(new File(root.getParentFile(), "watch-out.js"), "WHITESPACE_ONLY", root);
+		filter = new SourceScanner(null, SourceWatcher.DEFAULT_EXCLUDES, false);
+	}
+
+	@Benchmark
+	public int register() throws IOException {
+		return watch(false);
+	}
+
+	@Benchmark
+	public int poll() throws IOException {
+		return watch(true);
+	}
+
+	private int watch(boolean poll) throws IOException {
+		SourceWatcher watcher = new SourceWatcher(new QuietLog(), 1000, poll);
+		try {
+			watcher.watch(task, root, filter, Collections.<File>emptyList());
+			return watcher.getWatchedDirectoryCount() + watcher.getPolledTreeCount();
+		} finally {
+			watcher.close();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * JSON file mapping the logical name of each output to its content hashed copy, for example
+ * {@code "js/app.js": "js/app.3f2a9c81d0e4b567.js"}. Names are relative to the directory of the
+ * manifest. Entries are collected from every task of a run and written together once the run is
+ * done, merged with the entries of tasks that did not run this time.
+ */
+public class AssetManifest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int HASH_LENGTH = 16;
+
+	private final File file;
+	private final Map<String, String> entries = new TreeMap<>();
+
+	public AssetManifest(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the name of the content hashed copy of file, app.js becomes app.&lt;hash&gt;.js
+	 */
+	public static File hashedName(File file, String hash) {
+		String name = file.getName();
+		String shortHash = hash.substring(0, Math.min(HASH_LENGTH, hash.length()));
+		int dot = name.indexOf('.', 1);
+		String hashedName = dot < 0 ? name + "." + shortHash : name.substring(0, dot) + "." + shortHash + name.substring(dot);
+		return new File(file.getParentFile(), hashedName);
+	}
+
+	public synchronized void put(File logical, File hashed) {
+		entries.put(relativize(logical), relativize(hashed));
+	}
+
+	public synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Merges the entries of this run into the manifest and replaces it atomically, leaving it
+	 * untouched when nothing changed
+	 *
+	 * @return true if the manifest was replaced
+	 */
+	public synchronized boolean write() throws IOException {
+		Map<String, String> merged = new TreeMap<>();
+		if (file.isFile()) {
+			try {
+				merged.putAll(Json.parseStringMap(new String(Files.readAllBytes(file.toPath()), UTF8)));
+			} catch (IOException ex) {
+				// An unreadable manifest is replaced by the entries of this run
+			}
+		}
+		merged.putAll(entries);
+		Path base = getBase();
+		StringBuilder json = new StringBuilder("{");
+		String separator = "\n";
+		for (Map.Entry<String, String> entry : merged.entrySet()) {
+			if (!Files.exists(base.resolve(entry.getValue()))) {
+				continue;
+			}
+			json.append(separator).append("  ").append(Json.quote(entry.getKey())).append(": ").append(Json.quote(entry.getValue()));
+			separator = ",\n";
+		}
+		json.append("\n}\n");
+
+		AtomicOutputFile output = new AtomicOutputFile(file);
+		try {
+			output.write(json.toString().getBytes(UTF8));
+			return output.commit();
+		} finally {
+			output.discard();
+		}
+	}
+
+	/**
+	 * Copies file to its content hashed name, unless a copy with that hash already exists
+	 *
+	 * @return the hashed copy
+	 */
+	public static File writeHashedCopy(File file, String hash) throws IOException {
+		File hashed = hashedName(file, hash);
+		if (hashed.isFile() && hashed.length() == file.length()) {
+			return hashed;
+		}
+		Path temp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), "." + hashed.getName(), ".tmp");
+		try {
+			Files.copy(file.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, hashed.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return hashed;
+	}
+
+	private Path getBase() {
+		return file.getAbsoluteFile().getParentFile().toPath().normalize();
+	}
+
+	private String relativize(File target) {
+		Path path = target.toPath().toAbsolutePath().normalize();
+		try {
+			return getBase().relativize(path).toString().replace(File.separatorChar, '/');
+		} catch (IllegalArgumentException ex) {
+			// On another drive than the manifest
+			return path.toString().replace(File.separatorChar, '/');
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+/**
+ * An output stream for a file that only replaces the file once the content is complete, and only
+ * when the content differs from what the file already holds, so unchanged outputs keep their
+ * timestamp. Content is buffered in memory up to a limit, larger outputs spill into a temporary
+ * file next to the target. The target is replaced with an atomic rename.
+ */
+public class AtomicOutputFile extends OutputStream {
+	public static final int DEFAULT_MEMORY_LIMIT = 16 * 1024 * 1024;
+
+	private final File file;
+	private final int memoryLimit;
+	private final MessageDigest digest = Digests.newSha256();
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream(8192);
+	private File spillFile;
+	private OutputStream spill;
+	private long size;
+	private String hash;
+
+	public AtomicOutputFile(File file) {
+		this(file, DEFAULT_MEMORY_LIMIT);
+	}
+
+	public AtomicOutputFile(File file, int memoryLimit) {
+		this.file = file.getAbsoluteFile();
+		this.memoryLimit = memoryLimit;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		if (hash != null) {
+			throw new IOException("Output to " + file + " is already complete");
+		}
+		digest.update(bytes, offset, length);
+		size += length;
+		if (memory != null && memory.size() + length > memoryLimit) {
+			file.getParentFile().mkdirs();
+			spillFile = File.createTempFile("." + file.getName(), ".tmp", file.getParentFile());
+			spill = Files.newOutputStream(spillFile.toPath());
+			memory.writeTo(spill);
+			memory = null;
+		}
+		if (memory != null) {
+			memory.write(bytes, offset, length);
+		} else {
+			spill.write(bytes, offset, length);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (spill != null) {
+			spill.flush();
+		}
+	}
+
+	/**
+	 * @return the content written so far
+	 */
+	public byte[] toByteArray() throws IOException {
+		if (memory != null) {
+			return memory.toByteArray();
+		}
+		spill.flush();
+		return Files.readAllBytes(spillFile.toPath());
+	}
+
+	/**
+	 * Does not complete the output, that is up to {@link #commit()} or {@link #discard()}
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * @return the SHA-256 of everything written, which completes the output
+	 */
+	public String getHash() {
+		if (hash == null) {
+			hash = Digests.toHex(digest.digest());
+		}
+		return hash;
+	}
+
+	/**
+	 * Replaces the file with the content written, unless it already holds that content
+	 *
+	 * @return true if the file was replaced
+	 */
+	public boolean commit() throws IOException {
+		String contentHash = getHash();
+		if (file.isFile() && file.length() == size && Digests.sha256(file).equals(contentHash)) {
+			discard();
+			return false;
+		}
+		try {
+			if (memory != null) {
+				file.getParentFile().mkdirs();
+				spillFile = File.createTempFile("." + file.getName(), ".tmp", file.getParentFile());
+				Files.write(spillFile.toPath(), memory.toByteArray());
+				memory = null;
+			} else {
+				spill.close();
+			}
+			Files.move(spillFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			discard();
+		}
+		return true;
+	}
+
+	/**
+	 * Drops the content written and leaves the file as it was
+	 */
+	public void discard() throws IOException {
+		getHash();
+		memory = null;
+		if (spill != null) {
+			spill.close();
+			spill = null;
+		}
+		if (spillFile != null) {
+			Files.deleteIfExists(spillFile.toPath());
+			spillFile = null;
+		}
+	}
+}
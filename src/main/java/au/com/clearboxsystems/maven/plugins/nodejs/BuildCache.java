@@ -0,0 +1,293 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A local cache of task outputs keyed by a hash of everything the task depends on. Each entry is a
+ * zip holding the task's outputs, entry names are the index of the output in the task's outputs
+ * list followed by the path within that output when the output is a directory.
+ */
+public class BuildCache {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Accumulates the values and file contents that make up a cache key
+	 */
+	public static class KeyBuilder {
+		private final MessageDigest digest = Digests.newSha256();
+
+		public KeyBuilder add(String value) {
+			byte[] bytes = (value == null ? "\0" : value).getBytes(UTF8);
+			digest.update(Integer.toString(bytes.length).getBytes(UTF8));
+			digest.update((byte) ':');
+			digest.update(bytes);
+			return this;
+		}
+
+		/**
+		 * Adds the path of a file, relative to base when it lives below base
+		 */
+		public KeyBuilder addPath(File base, File file) {
+			return add(relativize(base, file));
+		}
+
+		/**
+		 * Adds the name and content of a file, or of every file below a directory in sorted order.
+		 * Names are recorded relative to base so the key does not depend on where the project lives.
+		 */
+		public KeyBuilder addFiles(File base, File root) throws IOException {
+			add(relativize(base, root));
+			if (!root.exists()) {
+				return add("missing");
+			}
+			for (File file : listFiles(root)) {
+				add(relativize(root, file));
+				add(Digests.sha256(file));
+			}
+			return this;
+		}
+
+		public String build() {
+			return Digests.toHex(digest.digest());
+		}
+	}
+
+	private final File directory;
+	private final RemoteBuildCache remote;
+
+	public BuildCache(File directory) {
+		this(directory, null);
+	}
+
+	/**
+	 * @param remote the cache entries missing locally are fetched from, and new entries are
+	 *               uploaded to, or null
+	 */
+	public BuildCache(File directory, RemoteBuildCache remote) {
+		this.directory = directory;
+		this.remote = remote;
+	}
+
+	public File getEntry(String key) {
+		return new File(directory, key.substring(0, 2) + File.separator + key + ".zip");
+	}
+
+	public boolean contains(String key) {
+		return getEntry(key).isFile();
+	}
+
+	/**
+	 * Restores the outputs stored under key, replacing what is there now, fetching the entry from
+	 * the remote cache when it is not available locally. An entry that can't be unpacked is deleted,
+	 * so the outputs built instead can be stored under the same key.
+	 *
+	 * @return false if there is no entry for the key
+	 */
+	public boolean restore(String key, List<File> outputs) throws IOException {
+		File entry = getEntry(key);
+		if (!entry.isFile() && (remote == null || !remote.fetch(key, entry))) {
+			return false;
+		}
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(entry.toPath()))) {
+			unpack(in, outputs);
+		} catch (IOException ex) {
+			Files.deleteIfExists(entry.toPath());
+			throw ex;
+		}
+		return true;
+	}
+
+	/**
+	 * Stores the outputs under key, replacing any existing entry atomically, and queues its upload
+	 * to the remote cache
+	 *
+	 * @return the stored entry
+	 */
+	public File store(String key, List<File> outputs) throws IOException {
+		File entry = getEntry(key);
+		entry.getParentFile().mkdirs();
+		File temp = File.createTempFile(".entry-", ".tmp", entry.getParentFile());
+		try {
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp.toPath()))) {
+				pack(outputs, out);
+			}
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		if (remote != null) {
+			remote.upload(key, entry);
+		}
+		return entry;
+	}
+
+	public static void pack(List<File> outputs, OutputStream target) throws IOException {
+		ZipOutputStream zip = new ZipOutputStream(target);
+		for (int i = 0; i < outputs.size(); i++) {
+			File output = outputs.get(i);
+			if (output.isDirectory()) {
+				zip.putNextEntry(new ZipEntry(i + "/"));
+				zip.closeEntry();
+				for (File file : listFiles(output)) {
+					zip.putNextEntry(new ZipEntry(i + "/" + relativize(output, file)));
+					Files.copy(file.toPath(), zip);
+					zip.closeEntry();
+				}
+			} else if (output.isFile()) {
+				zip.putNextEntry(new ZipEntry(Integer.toString(i)));
+				Files.copy(output.toPath(), zip);
+				zip.closeEntry();
+			} else {
+				throw new IOException("Output " + output + " was not created");
+			}
+		}
+		zip.finish();
+	}
+
+	/**
+	 * Restores every output from the zip. Each output is unpacked next to where it belongs and only
+	 * replaces the existing file or directory once the whole zip has been read, so files the cached
+	 * run didn't produce are removed and a broken entry leaves the outputs as they were.
+	 */
+	public static void unpack(InputStream source, List<File> outputs) throws IOException {
+		Map<Integer, Path> staged = new TreeMap<>();
+		try {
+			ZipInputStream zip = new ZipInputStream(source);
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				String name = entry.getName();
+				int slash = name.indexOf('/');
+				int index = Integer.parseInt(slash < 0 ? name : name.substring(0, slash));
+				if (index < 0 || index >= outputs.size()) {
+					throw new IOException("Cache entry " + name + " does not match the task outputs");
+				}
+				Path staging = staged.get(index);
+				if (staging == null) {
+					Path output = outputs.get(index).toPath().toAbsolutePath().normalize();
+					Files.createDirectories(output.getParent());
+					staging = output.getParent().resolve("." + output.getFileName() + ".restore-" + UUID.randomUUID());
+					if (slash >= 0) {
+						Files.createDirectory(staging);
+					}
+					staged.put(index, staging);
+				}
+				Path target = slash < 0 ? staging : staging.resolve(name.substring(slash + 1)).normalize();
+				if (!target.startsWith(staging)) {
+					throw new IOException("Cache entry " + name + " is outside of " + outputs.get(index));
+				}
+				if (entry.isDirectory()) {
+					Files.createDirectories(target);
+					continue;
+				}
+				Files.createDirectories(target.getParent());
+				Files.copy(zip, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			for (Iterator<Map.Entry<Integer, Path>> it = staged.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<Integer, Path> output = it.next();
+				replace(output.getValue(), outputs.get(output.getKey()).toPath().toAbsolutePath().normalize());
+				it.remove();
+			}
+		} finally {
+			for (Path staging : staged.values()) {
+				if (Files.exists(staging, LinkOption.NOFOLLOW_LINKS)) {
+					NodeModulesCache.deleteTree(staging);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the staged file or directory into place, deleting what was there before
+	 */
+	private static void replace(Path staging, Path target) throws IOException {
+		if (!Files.isDirectory(staging) && !Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+			Files.move(staging, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return;
+		}
+		Path previous = null;
+		if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+			previous = target.getParent().resolve("." + target.getFileName() + ".old-" + UUID.randomUUID());
+			Files.move(target, previous, StandardCopyOption.ATOMIC_MOVE);
+		}
+		Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+		if (previous != null) {
+			NodeModulesCache.deleteTree(previous);
+		}
+	}
+
+	/**
+	 * @return root itself if it is a file, otherwise every file below it in sorted order
+	 */
+	public static List<File> listFiles(File root) throws IOException {
+		final List<File> files = new ArrayList<>();
+		if (root.isFile()) {
+			files.add(root);
+			return files;
+		}
+		if (!root.isDirectory()) {
+			return files;
+		}
+		Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					files.add(file.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(files);
+		return files;
+	}
+
+	private static String relativize(File base, File file) {
+		if (base == null) {
+			return file.getAbsolutePath();
+		}
+		Path basePath = base.toPath().toAbsolutePath().normalize();
+		Path path = file.toPath().toAbsolutePath().normalize();
+		if (!path.startsWith(basePath)) {
+			return path.toString().replace(File.separatorChar, '/');
+		}
+		return basePath.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+}
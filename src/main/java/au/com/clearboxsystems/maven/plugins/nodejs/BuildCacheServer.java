@@ -0,0 +1,210 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.Base64;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * A small HTTP server for the remote build cache, keeping entries in a directory laid out like a
+ * local {@link BuildCache}. It answers {@code GET}, {@code HEAD} and {@code PUT} on
+ * {@code /<key>}, where key is a SHA-256 in hex.
+ *
+ * When a token is set, a {@code PUT} must carry it as a bearer token or as the password of basic
+ * authentication, which is how the remote cache sends the credentials in its URL. Reads are open
+ * to anyone who can reach the server. A read only server refuses every {@code PUT}.
+ */
+public class BuildCacheServer {
+	private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Log log;
+	private final BuildCache cache;
+	private final File directory;
+	private final long maxEntrySize;
+	private final byte[] token;
+	private final boolean readOnly;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * @param maxEntrySize the largest entry accepted, in bytes
+	 */
+	public BuildCacheServer(Log log, File directory, long maxEntrySize) {
+		this(log, directory, maxEntrySize, null, false);
+	}
+
+	/**
+	 * @param maxEntrySize the largest entry accepted, in bytes
+	 * @param token        the token uploads must carry, or null to accept uploads from anyone
+	 * @param readOnly     refuse every upload
+	 */
+	public BuildCacheServer(Log log, File directory, long maxEntrySize, String token, boolean readOnly) {
+		this.log = log;
+		this.directory = directory;
+		this.cache = new BuildCache(directory);
+		this.maxEntrySize = maxEntrySize;
+		this.token = token == null || token.isEmpty() ? null : token.getBytes(UTF8);
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Starts listening, port 0 picks a free port
+	 */
+	public void start(String host, int port, int threads) throws IOException {
+		directory.mkdirs();
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} catch (IOException | RuntimeException ex) {
+					log.warn("Failed to serve " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + ex.getMessage());
+					throw ex;
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String key = path.substring(path.lastIndexOf('/') + 1);
+		if (!KEY.matcher(key).matches()) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		File entry = cache.getEntry(key);
+		String method = exchange.getRequestMethod();
+		if (method.equals("GET") || method.equals("HEAD")) {
+			if (!entry.isFile()) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "application/zip");
+			if (method.equals("HEAD")) {
+				exchange.getResponseHeaders().set("Content-Length", Long.toString(entry.length()));
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, entry.length());
+			try (OutputStream out = exchange.getResponseBody()) {
+				Files.copy(entry.toPath(), out);
+			}
+		} else if (method.equals("PUT")) {
+			if (readOnly) {
+				exchange.sendResponseHeaders(403, -1);
+			} else if (!isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+				exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"build cache\"");
+				exchange.sendResponseHeaders(401, -1);
+			} else {
+				receive(exchange, key, entry);
+			}
+		} else {
+			exchange.getResponseHeaders().set("Allow", "GET, HEAD, PUT");
+			exchange.sendResponseHeaders(405, -1);
+		}
+	}
+
+	/**
+	 * @return whether the Authorization header carries the token, always true when no token is set
+	 */
+	boolean isAuthorized(String authorization) {
+		if (token == null) {
+			return true;
+		}
+		if (authorization == null) {
+			return false;
+		}
+		byte[] presented;
+		if (authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+			presented = authorization.substring(7).trim().getBytes(UTF8);
+		} else if (authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+			String credentials = new String(Base64.decodeBase64(authorization.substring(6).trim().getBytes(UTF8)), UTF8);
+			presented = credentials.substring(credentials.indexOf(':') + 1).getBytes(UTF8);
+		} else {
+			return false;
+		}
+		return MessageDigest.isEqual(presented, token);
+	}
+
+	private void receive(HttpExchange exchange, String key, File entry) throws IOException {
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (length != null && Long.parseLong(length) > maxEntrySize) {
+			exchange.sendResponseHeaders(413, -1);
+			return;
+		}
+		entry.getParentFile().mkdirs();
+		File temp = File.createTempFile(".upload-", ".tmp", entry.getParentFile());
+		try {
+			long size = 0;
+			byte[] buffer = new byte[65536];
+			try (InputStream in = exchange.getRequestBody(); OutputStream out = Files.newOutputStream(temp.toPath())) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					size += read;
+					if (size > maxEntrySize) {
+						exchange.sendResponseHeaders(413, -1);
+						return;
+					}
+					out.write(buffer, 0, read);
+				}
+			}
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.debug("Stored " + key + " (" + size + " bytes)");
+			exchange.sendResponseHeaders(201, -1);
+		} finally {
+			temp.delete();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timings and counters recorded for each task of a run, reported as a table in the log and as a
+ * JSON file so they can be tracked across builds.
+ *
+ * The metrics of the task running on the current thread are available from {@link #current()}, so
+ * code deep inside a task can record into them without having them passed along.
+ */
+public class BuildMetrics {
+	private static final ThreadLocal<TaskMetrics> CURRENT = new ThreadLocal<>();
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final TaskMetrics DETACHED = new TaskMetrics("", "");
+
+	public static class TaskMetrics {
+		public final String name;
+		public final String type;
+		private String status = "running";
+		private final long startNanos = System.nanoTime();
+		private final long startThreadCpuNanos = currentThreadCpuTime();
+		private long wallNanos;
+		private long threadCpuNanos;
+		private long spawnNanos;
+		private long filesScanned;
+		private long inputBytes;
+		private long outputBytes;
+
+		public TaskMetrics(String name, String type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		/**
+		 * Stops the clocks. CPU time is only that of the calling thread, it leaves out node, forked
+		 * compilers and the threads of chunked compiles, so it is reported as thread CPU.
+		 */
+		public void finish(String finalStatus) {
+			wallNanos = System.nanoTime() - startNanos;
+			threadCpuNanos = Math.max(0, currentThreadCpuTime() - startThreadCpuNanos);
+			if (status.equals("running") || !finalStatus.equals("ok")) {
+				status = finalStatus;
+			}
+		}
+
+		public void setStatus(String status) {
+			this.status = status;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+
+		public void addSpawnNanos(long nanos) {
+			spawnNanos += nanos;
+		}
+
+		public void addFilesScanned(long count) {
+			filesScanned += count;
+		}
+
+		public void addInputBytes(long bytes) {
+			inputBytes += bytes;
+		}
+
+		public void addOutputBytes(long bytes) {
+			outputBytes += bytes;
+		}
+
+		public long getWallMillis() {
+			return wallNanos / 1000000;
+		}
+
+		public long getThreadCpuMillis() {
+			return threadCpuNanos / 1000000;
+		}
+
+		public long getSpawnMillis() {
+			return spawnNanos / 1000000;
+		}
+
+		public long getFilesScanned() {
+			return filesScanned;
+		}
+
+		public long getInputBytes() {
+			return inputBytes;
+		}
+
+		public long getOutputBytes() {
+			return outputBytes;
+		}
+	}
+
+	private final List<TaskMetrics> tasks = new ArrayList<>();
+
+	/**
+	 * Starts recording a task on the calling thread
+	 */
+	public TaskMetrics start(String name, String type) {
+		TaskMetrics metrics = new TaskMetrics(name, type);
+		synchronized (tasks) {
+			tasks.add(metrics);
+		}
+		CURRENT.set(metrics);
+		return metrics;
+	}
+
+	public void finish(TaskMetrics metrics, String status) {
+		metrics.finish(status);
+		if (CURRENT.get() == metrics) {
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * Records a task that never started, for example because a dependency failed
+	 */
+	public void skipped(String name, String type) {
+		TaskMetrics metrics = new TaskMetrics(name, type);
+		metrics.finish("skipped");
+		synchronized (tasks) {
+			tasks.add(metrics);
+		}
+	}
+
+	/**
+	 * @return the metrics of the task running on this thread, or a shared instance that is never
+	 * reported when the thread is not running a recorded task
+	 */
+	public static TaskMetrics current() {
+		TaskMetrics metrics = CURRENT.get();
+		return metrics != null ? metrics : DETACHED;
+	}
+
+	public List<TaskMetrics> getTasks() {
+		synchronized (tasks) {
+			return new ArrayList<>(tasks);
+		}
+	}
+
+	public void logSummary(Log log) {
+		List<TaskMetrics> snapshot = getTasks();
+		if (snapshot.isEmpty()) {
+			return;
+		}
+		String format = "%-32s %-20s %-10s %9s %9s %9s %8s %10s %10s";
+		log.info("Task timings:");
+		log.info(String.format(format, "Task", "Type", "Status", "Wall ms", "Thread ms", "Spawn ms", "Files", "In KB", "Out KB"));
+		for (TaskMetrics metrics : snapshot) {
+			log.info(String.format(format, abbreviate(metrics.name, 32), abbreviate(metrics.type, 20), metrics.status,
+					metrics.getWallMillis(), metrics.getThreadCpuMillis(), metrics.getSpawnMillis(), metrics.filesScanned,
+					metrics.inputBytes / 1024, metrics.outputBytes / 1024));
+		}
+	}
+
+	/**
+	 * Writes the metrics as JSON, replacing the file atomically
+	 */
+	public void writeJson(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File temp = File.createTempFile("." + file.getName(), ".tmp", parent);
+		try {
+			try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temp.toPath()), Charset.forName("UTF-8"))) {
+				writer.write("{\n  \"timestamp\": " + System.currentTimeMillis() + ",\n  \"tasks\": [");
+				String separator = "\n";
+				for (TaskMetrics metrics : getTasks()) {
+					writer.write(separator);
+					writer.write("    {\"name\": " + Json.quote(metrics.name)
+							+ ", \"type\": " + Json.quote(metrics.type)
+							+ ", \"status\": " + Json.quote(metrics.status)
+							+ ", \"wallMillis\": " + metrics.getWallMillis()
+							+ ", \"threadCpuMillis\": " + metrics.getThreadCpuMillis()
+							+ ", \"spawnMillis\": " + metrics.getSpawnMillis()
+							+ ", \"filesScanned\": " + metrics.filesScanned
+							+ ", \"inputBytes\": " + metrics.inputBytes
+							+ ", \"outputBytes\": " + metrics.outputBytes + "}");
+					separator = ",\n";
+				}
+				writer.write("\n  ]\n}\n");
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static long currentThreadCpuTime() {
+		try {
+			return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+		} catch (UnsupportedOperationException ex) {
+			return 0;
+		}
+	}
+
+	private static String abbreviate(String value, int length) {
+		return value.length() <= length ? value : "..." + value.substring(value.length() - length + 3);
+	}
+}
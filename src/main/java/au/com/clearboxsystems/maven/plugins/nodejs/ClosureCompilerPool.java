@@ -0,0 +1,215 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Long lived JVMs that run closure compiles outside of the Maven JVM, with their own heap and GC
+ * settings. A worker is started when first needed and reused for later compiles, from any task
+ * or module. A worker that dies is started again, and a compile it was running is retried once on
+ * the new worker. A worker that ran out of memory exits and is started again for the next compile.
+ */
+public class ClosureCompilerPool {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static class Result {
+		public final int status;
+		public final String messages;
+		public final Map<String, byte[]> outputs;
+		public final List<Diagnostics.Diagnostic> diagnostics;
+
+		Result(int status, String messages, Map<String, byte[]> outputs, List<Diagnostics.Diagnostic> diagnostics) {
+			this.status = status;
+			this.messages = messages;
+			this.outputs = outputs;
+			this.diagnostics = diagnostics;
+		}
+	}
+
+	private static class Worker {
+		Process process;
+		DataOutputStream in;
+		DataInputStream out;
+
+		boolean isAlive() {
+			if (process == null) {
+				return false;
+			}
+			try {
+				process.exitValue();
+				return false;
+			} catch (IllegalThreadStateException ex) {
+				return true;
+			}
+		}
+
+		void destroy() {
+			if (process != null) {
+				process.destroy();
+				process = null;
+			}
+		}
+	}
+
+	private final List<String> command;
+	private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+	private final List<Worker> workers = new ArrayList<>();
+
+	/**
+	 * @param jvmArgs the arguments the worker JVMs are started with, such as -Xmx
+	 */
+	public ClosureCompilerPool(List<String> jvmArgs, int size) {
+		command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(getClassPath());
+		command.add(ClosureCompilerProcess.class.getName());
+		resize(size);
+	}
+
+	/**
+	 * Adds workers until there are at least size of them
+	 */
+	public synchronized void resize(int size) {
+		while (workers.size() < Math.max(1, size)) {
+			Worker worker = new Worker();
+			workers.add(worker);
+			idle.add(worker);
+		}
+	}
+
+	public synchronized int size() {
+		return workers.size();
+	}
+
+	/**
+	 * Runs a compile on the next free worker, waiting for one if they are all busy
+	 *
+	 * @param locationMappings source map path prefixes and their replacements, in order
+	 */
+	public Result compile(String[] args, Map<String, String> locationMappings) throws IOException, InterruptedException {
+		Worker worker = idle.take();
+		try {
+			try {
+				return compile(worker, args, locationMappings);
+			} catch (IOException ex) {
+				// the worker died, start a new one and try again
+				worker.destroy();
+				return compile(worker, args, locationMappings);
+			}
+		} catch (IOException ex) {
+			worker.destroy();
+			throw new IOException("The closure compiler worker JVM failed: " + ex.getMessage(), ex);
+		} finally {
+			idle.add(worker);
+		}
+	}
+
+	public synchronized void close() {
+		for (Worker worker : workers) {
+			worker.destroy();
+		}
+	}
+
+	private Result compile(Worker worker, String[] args, Map<String, String> locationMappings) throws IOException {
+		if (!worker.isAlive()) {
+			start(worker);
+		}
+		worker.in.writeInt(args.length);
+		for (String arg : args) {
+			worker.in.writeUTF(arg);
+		}
+		worker.in.writeInt(locationMappings.size());
+		for (Map.Entry<String, String> mapping : locationMappings.entrySet()) {
+			worker.in.writeUTF(mapping.getKey());
+			worker.in.writeUTF(mapping.getValue());
+		}
+		worker.in.flush();
+
+		int status = worker.out.readInt();
+		String messages = new String(ClosureCompilerProcess.readBytes(worker.out), UTF8);
+		Map<String, byte[]> outputs = new LinkedHashMap<>();
+		for (int i = worker.out.readInt(); i > 0; i--) {
+			outputs.put(worker.out.readUTF(), ClosureCompilerProcess.readBytes(worker.out));
+		}
+		List<Diagnostics.Diagnostic> diagnostics = new ArrayList<>();
+		for (int i = worker.out.readInt(); i > 0; i--) {
+			diagnostics.add(ClosureCompilerProcess.readDiagnostic(worker.out));
+		}
+		if (status == ClosureCompilerProcess.OUT_OF_MEMORY) {
+			worker.destroy();
+		}
+		return new Result(status, messages, outputs, diagnostics);
+	}
+
+	private void start(Worker worker) throws IOException {
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		worker.process = builder.start();
+		worker.in = new DataOutputStream(new BufferedOutputStream(worker.process.getOutputStream()));
+		worker.out = new DataInputStream(new BufferedInputStream(worker.process.getInputStream()));
+	}
+
+	/**
+	 * @return the class path the plugin was loaded from, which holds the compiler and its
+	 * dependencies
+	 */
+	private static String getClassPath() {
+		Set<String> entries = new LinkedHashSet<>();
+		ClassLoader loader = ClosureCompilerPool.class.getClassLoader();
+		if (loader instanceof URLClassLoader) {
+			for (URL url : ((URLClassLoader) loader).getURLs()) {
+				if (url.getProtocol().equals("file")) {
+					try {
+						entries.add(new File(url.toURI()).getPath());
+					} catch (URISyntaxException ex) {
+						entries.add(url.getPath());
+					}
+				}
+			}
+		}
+		if (entries.isEmpty()) {
+			return System.getProperty("java.class.path");
+		}
+		StringBuilder classPath = new StringBuilder();
+		for (String entry : entries) {
+			if (classPath.length() > 0) {
+				classPath.append(File.pathSeparator);
+			}
+			classPath.append(entry);
+		}
+		return classPath.toString();
+	}
+}
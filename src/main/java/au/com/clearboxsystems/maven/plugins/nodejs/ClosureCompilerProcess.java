@@ -0,0 +1,246 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.jscomp.SourceMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Main class of the worker JVMs of a {@link ClosureCompilerPool}. It reads compile requests from
+ * stdin and answers each on stdout with the compiler's messages and the outputs it produced, which
+ * the build writes the same way as those of an in process compile.
+ *
+ * A request is the argument count, the arguments, the source map location mapping count and the
+ * prefix and replacement of each. A response is the status, the messages, the output count, the
+ * path and content of each output, the diagnostic count and each diagnostic. A worker that ran
+ * out of memory answers and exits.
+ */
+public class ClosureCompilerProcess {
+	public static final int OK = 0;
+	public static final int FAILED = 1;
+	public static final int OUT_OF_MEMORY = 2;
+
+	/**
+	 * A compiler that keeps its outputs in memory
+	 */
+	private static class Runner extends CommandLineRunner {
+		private final String[] args;
+		private final Map<String, String> locationMappings;
+		private final Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+
+		Runner(String[] args, Map<String, String> locationMappings, PrintStream err) {
+			super(args, err, err);
+			this.args = args;
+			this.locationMappings = locationMappings;
+		}
+
+		boolean compile() throws Exception {
+			return shouldRunCompiler() && doRun() == 0;
+		}
+
+		List<Diagnostics.Diagnostic> getDiagnostics() {
+			return ClosureCompilerProcess.getDiagnostics(getCompiler());
+		}
+
+		@Override
+		protected List<SourceFile> createExterns() throws IOException {
+			return SharedRuntime.createExterns(args);
+		}
+
+		@Override
+		protected CompilerOptions createOptions() {
+			CompilerOptions options = super.createOptions();
+			if (!locationMappings.isEmpty()) {
+				options.setSourceMapLocationMappings(toLocationMappings(locationMappings));
+			}
+			return options;
+		}
+
+		@Override
+		protected OutputStream filenameToOutputStream(String fileName) {
+			if (fileName == null) {
+				return null;
+			}
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			outputs.put(fileName, output);
+			return output;
+		}
+	}
+
+	public static void main(String[] arguments) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		// stdout carries the responses, anything else printed goes to stderr
+		System.setOut(System.err);
+
+		while (true) {
+			int count;
+			try {
+				count = in.readInt();
+			} catch (EOFException ex) {
+				return;
+			}
+			String[] args = new String[count];
+			for (int i = 0; i < count; i++) {
+				args[i] = in.readUTF();
+			}
+			Map<String, String> mappings = new LinkedHashMap<>();
+			for (int i = in.readInt(); i > 0; i--) {
+				mappings.put(in.readUTF(), in.readUTF());
+			}
+
+			ByteArrayOutputStream messages = new ByteArrayOutputStream();
+			PrintStream err = new PrintStream(messages, true, "UTF-8");
+			Runner runner = new Runner(args, mappings, err);
+			int status;
+			try {
+				status = runner.compile() ? OK : FAILED;
+			} catch (Throwable t) {
+				if (getVirtualMachineError(t) instanceof OutOfMemoryError) {
+					// free the compiler's memory to be able to answer
+					runner = null;
+					status = OUT_OF_MEMORY;
+				} else {
+					t.printStackTrace(err);
+					status = FAILED;
+				}
+			}
+			err.flush();
+
+			out.writeInt(status);
+			writeBytes(out, messages.toByteArray());
+			if (runner == null) {
+				out.writeInt(0);
+				out.writeInt(0);
+				out.flush();
+				System.exit(OUT_OF_MEMORY);
+			}
+			out.writeInt(runner.outputs.size());
+			for (Map.Entry<String, ByteArrayOutputStream> output : runner.outputs.entrySet()) {
+				out.writeUTF(output.getKey());
+				writeBytes(out, output.getValue().toByteArray());
+			}
+			List<Diagnostics.Diagnostic> diagnostics = runner.getDiagnostics();
+			out.writeInt(diagnostics.size());
+			for (Diagnostics.Diagnostic diagnostic : diagnostics) {
+				writeDiagnostic(out, diagnostic);
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * @param locationMappings source path prefixes and their replacements, in the order closure
+	 *                         should try them
+	 */
+	public static List<SourceMap.LocationMapping> toLocationMappings(Map<String, String> locationMappings) {
+		List<SourceMap.LocationMapping> mappings = new ArrayList<>();
+		for (Map.Entry<String, String> mapping : locationMappings.entrySet()) {
+			mappings.add(new SourceMap.LocationMapping(mapping.getKey(), mapping.getValue()));
+		}
+		return mappings;
+	}
+
+	/**
+	 * @return the errors and warnings the compiler reported, with 1 based columns
+	 */
+	public static List<Diagnostics.Diagnostic> getDiagnostics(Compiler compiler) {
+		List<Diagnostics.Diagnostic> diagnostics = new ArrayList<>();
+		if (compiler == null) {
+			return diagnostics;
+		}
+		for (JSError error : compiler.getErrors()) {
+			diagnostics.add(toDiagnostic(Diagnostics.ERROR, error));
+		}
+		for (JSError warning : compiler.getWarnings()) {
+			diagnostics.add(toDiagnostic(Diagnostics.WARNING, warning));
+		}
+		return diagnostics;
+	}
+
+	private static Diagnostics.Diagnostic toDiagnostic(String severity, JSError error) {
+		return new Diagnostics.Diagnostic(severity, error.sourceName, error.lineNumber, error.getCharno() + 1,
+				error.getType() != null ? error.getType().key : null, error.description);
+	}
+
+	/**
+	 * @return the error of the JVM that caused t, closure wraps those thrown on its compiler thread
+	 */
+	public static VirtualMachineError getVirtualMachineError(Throwable t) {
+		for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+			if (cause instanceof VirtualMachineError) {
+				return (VirtualMachineError) cause;
+			}
+		}
+		return null;
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	static void writeDiagnostic(DataOutputStream out, Diagnostics.Diagnostic diagnostic) throws IOException {
+		out.writeUTF(diagnostic.severity);
+		writeNullable(out, diagnostic.file);
+		out.writeInt(diagnostic.line);
+		out.writeInt(diagnostic.column);
+		writeNullable(out, diagnostic.code);
+		writeNullable(out, diagnostic.message);
+	}
+
+	static Diagnostics.Diagnostic readDiagnostic(DataInputStream in) throws IOException {
+		return new Diagnostics.Diagnostic(in.readUTF(), readNullable(in), in.readInt(), in.readInt(), readNullable(in), readNullable(in));
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			writeBytes(out, value.getBytes("UTF-8"));
+		}
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? new String(readBytes(in), "UTF-8") : null;
+	}
+}
@@ -18,6 +18,7 @@ package au.com.clearboxsystems.maven.plugins.nodejs;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -25,13 +26,41 @@ import java.util.List;
  * Date: 11/02/13
  */
 public class ClosureCompilerTask extends Task {
-	@Parameter(required = true)
+	@Parameter
 	public List<File> sources;
 
+	/**
+	 * Compiles into one output file per module instead of into outputFile. The modules are
+	 * compiled together, so code shared between them is only emitted once. A task with modules
+	 * can't also have sources or an outputFile.
+	 */
+	@Parameter
+	public List<ClosureModule> modules;
+
+	/**
+	 * Directory the module outputs are written to
+	 */
+	@Parameter
+	public File outputDirectory;
+
 	@Parameter
 	public List<File> externs;
 
-	@Parameter(required = true)
+	/**
+	 * Ant style patterns, relative to each source and extern directory, of the files to compile.
+	 * Defaults to all javascript files.
+	 */
+	@Parameter
+	public List<String> includes;
+
+	/**
+	 * Ant style patterns of files and directories to leave out, for example **&#47;test/**.
+	 * node_modules and version control directories are always left out.
+	 */
+	@Parameter
+	public List<String> excludes;
+
+	@Parameter
 	public File outputFile;
 
 //	WHITESPACE_ONLY,
@@ -55,4 +84,108 @@ public class ClosureCompilerTask extends Task {
 	@Parameter(defaultValue = "DEFAULT")
 	public String warningLevel;
 
+	/**
+	 * Generates a source map for each output. "file" writes it next to the output as
+	 * {@code <output>.map}, "inline" embeds it in the output as a data URI.
+	 */
+	@Parameter
+	public String sourceMap;
+
+	/**
+	 * Also write a gzip compressed copy of each output as {@code <output>.gz}
+	 */
+	@Parameter
+	public boolean gzip;
+
+	/**
+	 * Also write a brotli compressed copy of each output as {@code <output>.br}, requires the
+	 * brotli executable
+	 */
+	@Parameter
+	public boolean brotli;
+
+	/**
+	 * Also write a copy of each output named after its content, {@code <name>.<hash>.js}, and
+	 * record it in the asset manifest
+	 */
+	@Parameter
+	public boolean hashFileNames;
+
+	/**
+	 * Skip compilation when the input manifest stored next to outputFile shows that no source,
+	 * extern or compiler flag has changed since the last successful compile.
+	 */
+	@Parameter(defaultValue = "true")
+	public boolean incremental = true;
+
+	public boolean hasSourceMap() {
+		return sourceMap != null && !sourceMap.isEmpty() && !sourceMap.equalsIgnoreCase("none");
+	}
+
+	public boolean isSourceMapInline() {
+		return "inline".equalsIgnoreCase(sourceMap);
+	}
+
+	public boolean isChunked() {
+		return modules != null && !modules.isEmpty();
+	}
+
+	/**
+	 * @return the sources of the task and of all of its modules
+	 */
+	public List<File> getAllSources() {
+		List<File> all = new ArrayList<>();
+		if (sources != null) {
+			all.addAll(sources);
+		}
+		if (modules != null) {
+			for (ClosureModule module : modules) {
+				if (module.sources != null) {
+					all.addAll(module.sources);
+				}
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * @return outputFile, or the output file of every module, and their source maps
+	 */
+	public List<File> getOutputFiles() {
+		List<File> outputs = new ArrayList<>();
+		if (!isChunked()) {
+			addOutputFile(outputs, outputFile);
+			return outputs;
+		}
+		for (ClosureModule module : modules) {
+			addOutputFile(outputs, new File(outputDirectory, module.name + ".js"));
+		}
+		return outputs;
+	}
+
+	private void addOutputFile(List<File> outputs, File output) {
+		outputs.add(output);
+		if (hasSourceMap() && !isSourceMapInline()) {
+			outputs.add(new File(output.getPath() + ".map"));
+		}
+	}
+
+	/**
+	 * @return the file the input manifest is kept next to
+	 */
+	public File getManifestTarget() {
+		return isChunked() ? new File(outputDirectory, "modules") : outputFile;
+	}
+
+	@Override
+	public String getDisplayName() {
+		if (id != null) {
+			return id;
+		}
+		if (isChunked() && outputDirectory != null) {
+			return outputDirectory.getName();
+		}
+		return outputFile != null ? outputFile.getName() : super.getDisplayName();
+	}
+
 }
@@ -0,0 +1,103 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.javascript.jscomp.SourceFile;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Long lived state for a single ClosureCompilerTask in watch mode. Keeps the argument list, the
+ * loaded externs (including the compiler's default externs) and the contents of every source
+ * in memory between rebuilds, so that a rebuild only re-reads the files the watcher reported.
+ *
+ * The closure compiler cannot reuse a parsed AST across compilations, so each rebuild still
+ * parses its inputs, but it does so from memory in an already warmed up JVM.
+ */
+public class ClosureCompilerWorker {
+	private static final String CHARSET = "UTF-8";
+
+	private final Map<String, SourceFile> sources = new HashMap<>();
+	private final Set<String> externPaths = new HashSet<>();
+	private List<SourceFile> externs;
+	private String[] arguments;
+
+	/**
+	 * @return the cached compiler arguments, or null if the source tree has to be scanned again
+	 */
+	public synchronized String[] getArguments() {
+		return arguments;
+	}
+
+	public synchronized void setArguments(String[] arguments) {
+		this.arguments = arguments;
+		externPaths.clear();
+		for (int i = 0; i < arguments.length - 1; i++) {
+			if (arguments[i].equals("--externs")) {
+				externPaths.add(arguments[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Drops the cached state for the given files. Files that were created or deleted also drop the
+	 * cached argument list, since the set of inputs has changed.
+	 */
+	public synchronized void invalidate(Collection<File> files) {
+		for (File file : files) {
+			String path = file.getAbsolutePath();
+			boolean known = sources.remove(path) != null || externPaths.contains(path);
+			if (externPaths.contains(path)) {
+				externs = null;
+			}
+			if (!known || !file.exists()) {
+				arguments = null;
+				externs = null;
+			}
+		}
+	}
+
+	public synchronized SourceFile getSource(String path) throws IOException {
+		SourceFile source = sources.get(path);
+		if (source == null) {
+			source = SourceFile.fromCode(path, FileUtils.readFileToString(new File(path), CHARSET));
+			sources.put(path, source);
+		}
+		return source;
+	}
+
+	public synchronized List<SourceFile> getExterns(Callable<List<SourceFile>> loader) throws IOException {
+		if (externs == null) {
+			try {
+				externs = loader.call();
+			} catch (IOException | RuntimeException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new IOException(ex.getMessage(), ex);
+			}
+		}
+		return externs;
+	}
+}
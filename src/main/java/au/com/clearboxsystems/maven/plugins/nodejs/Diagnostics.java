@@ -0,0 +1,201 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The errors and warnings reported by the tasks of a run, with the file and line they point at
+ * when the tool reported one, written as a JSON report that CI can turn into annotations.
+ */
+public class Diagnostics {
+	public static final String ERROR = "error";
+	public static final String WARNING = "warning";
+
+	/**
+	 * file(line,col): error TS2304: message, as printed by tsc
+	 */
+	private static final Pattern TSC = Pattern.compile("^(.+?)\\((\\d+),(\\d+)\\): (error|warning) (\\w+): (.*)$");
+	/**
+	 * file:line:col: error: message, as printed by gcc style reporters
+	 */
+	private static final Pattern GNU = Pattern.compile("^(.+?):(\\d+):(\\d+): (error|warning): (.*)$");
+
+	public static class Diagnostic {
+		public final String severity;
+		public final String file;
+		public final int line;
+		public final int column;
+		public final String code;
+		public final String message;
+
+		/**
+		 * @param line   1 based, 0 when unknown
+		 * @param column 1 based, 0 when unknown
+		 */
+		public Diagnostic(String severity, String file, int line, int column, String code, String message) {
+			this.severity = severity;
+			this.file = file;
+			this.line = Math.max(0, line);
+			this.column = Math.max(0, column);
+			this.code = code;
+			this.message = message;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder();
+			if (file != null) {
+				result.append(file);
+				if (line > 0) {
+					result.append(':').append(line);
+					if (column > 0) {
+						result.append(':').append(column);
+					}
+				}
+				result.append(": ");
+			}
+			result.append(severity).append(code != null ? " " + code : "").append(": ").append(message);
+			return result.toString();
+		}
+	}
+
+	private static class Entry {
+		final Task task;
+		final Diagnostic diagnostic;
+
+		Entry(Task task, Diagnostic diagnostic) {
+			this.task = task;
+			this.diagnostic = diagnostic;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<>();
+
+	public synchronized void add(Task task, Diagnostic diagnostic) {
+		entries.add(new Entry(task, diagnostic));
+	}
+
+	public synchronized void addAll(Task task, List<Diagnostic> diagnostics) {
+		for (Diagnostic diagnostic : diagnostics) {
+			add(task, diagnostic);
+		}
+	}
+
+	/**
+	 * @return whether an error was recorded for the task
+	 */
+	public synchronized boolean hasErrors(Task task) {
+		for (Entry entry : entries) {
+			if (entry.task == task && entry.diagnostic.severity.equals(ERROR)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized int count(String severity) {
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry.diagnostic.severity.equals(severity)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Recognises the diagnostics of tsc and of gcc style reporters in a line of a tool's output
+	 *
+	 * @return the diagnostic, or null when the line isn't one
+	 */
+	public static Diagnostic parse(String line) {
+		Matcher matcher = TSC.matcher(line);
+		if (matcher.matches()) {
+			return new Diagnostic(matcher.group(4), matcher.group(1), Integer.parseInt(matcher.group(2)),
+					Integer.parseInt(matcher.group(3)), matcher.group(5), matcher.group(6));
+		}
+		matcher = GNU.matcher(line);
+		if (matcher.matches()) {
+			return new Diagnostic(matcher.group(4), matcher.group(1), Integer.parseInt(matcher.group(2)),
+					Integer.parseInt(matcher.group(3)), null, matcher.group(5));
+		}
+		return null;
+	}
+
+	public void logSummary(Log log) {
+		int errors = count(ERROR);
+		int warnings = count(WARNING);
+		if (errors > 0 || warnings > 0) {
+			log.info(String.format("Diagnostics: %d error(s), %d warning(s)", errors, warnings));
+		}
+	}
+
+	/**
+	 * Writes the diagnostics as JSON, replacing the file atomically
+	 */
+	public void writeJson(File file) throws IOException {
+		List<Entry> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<>(entries);
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File temp = File.createTempFile("." + file.getName(), ".tmp", parent);
+		try {
+			try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temp.toPath()), Charset.forName("UTF-8"))) {
+				writer.write("{\n  \"timestamp\": " + System.currentTimeMillis()
+						+ ",\n  \"errors\": " + count(ERROR)
+						+ ",\n  \"warnings\": " + count(WARNING)
+						+ ",\n  \"diagnostics\": [");
+				String separator = "\n";
+				for (Entry entry : snapshot) {
+					Diagnostic diagnostic = entry.diagnostic;
+					writer.write(separator);
+					writer.write("    {\"task\": " + Json.quote(entry.task != null ? entry.task.getDisplayName() : null)
+							+ ", \"type\": " + Json.quote(entry.task != null ? entry.task.getClass().getSimpleName() : null)
+							+ ", \"severity\": " + Json.quote(diagnostic.severity)
+							+ ", \"file\": " + Json.quote(diagnostic.file)
+							+ ", \"line\": " + (diagnostic.line > 0 ? String.valueOf(diagnostic.line) : "null")
+							+ ", \"column\": " + (diagnostic.column > 0 ? String.valueOf(diagnostic.column) : "null")
+							+ ", \"code\": " + Json.quote(diagnostic.code)
+							+ ", \"message\": " + Json.quote(diagnostic.message) + "}");
+					separator = ",\n";
+				}
+				writer.write("\n  ]\n}\n");
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.javascript.jscomp.Compiler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records everything a closure compilation depends on: the path, size, modification time and
+ * content hash of every --js and --externs file, plus the remaining compiler flags. When the
+ * manifest stored next to the output file matches the current one the compilation can be skipped.
+ */
+public class InputManifest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String HEADER = "# nodejs-maven-plugin closure input manifest";
+
+	public static class Entry {
+		public final String kind;
+		public final String path;
+		public final long size;
+		public final long lastModified;
+		public final String hash;
+
+		public Entry(String kind, String path, long size, long lastModified, String hash) {
+			this.kind = kind;
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+
+	private final List<String> flags = new ArrayList<>();
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+	public static File getManifestFile(File outputFile) {
+		return new File(outputFile.getAbsoluteFile().getParentFile(), "." + outputFile.getName() + ".manifest");
+	}
+
+	/**
+	 * Builds the manifest for the given compiler arguments. Hashes recorded in the previous
+	 * manifest are reused for files whose size and modification time have not changed.
+	 */
+	public static InputManifest create(String[] args, InputManifest previous) throws IOException {
+		InputManifest manifest = new InputManifest();
+		manifest.flags.add("compiler " + Compiler.getReleaseVersion());
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ((arg.equals("--js") || arg.equals("--externs")) && i + 1 < args.length) {
+				String kind = arg.substring(2);
+				File file = new File(args[++i]);
+				long size = file.length();
+				long lastModified = file.lastModified();
+				String hash = null;
+				Entry old = previous != null ? previous.entries.get(kind + " " + file.getAbsolutePath()) : null;
+				if (old != null && old.size == size && old.lastModified == lastModified) {
+					hash = old.hash;
+				} else if (file.isFile()) {
+					hash = Digests.sha256(file);
+				}
+				manifest.add(new Entry(kind, file.getAbsolutePath(), size, lastModified, hash == null ? "-" : hash));
+			} else {
+				manifest.flags.add("flag " + arg);
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Records a setting that changes the output but is not passed to the compiler as an argument
+	 */
+	public void addFlag(String flag) {
+		flags.add("flag " + flag);
+	}
+
+	public static InputManifest load(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		InputManifest manifest = new InputManifest();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				return null;
+			}
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("compiler ") || line.startsWith("flag ")) {
+					manifest.flags.add(line);
+				} else {
+					String[] parts = line.split(" ", 5);
+					if (parts.length != 5) {
+						return null;
+					}
+					manifest.add(new Entry(parts[0], parts[4], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+				}
+			}
+		} catch (IOException | NumberFormatException ex) {
+			return null;
+		}
+		return manifest;
+	}
+
+	public void save(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8)) {
+			writer.write(HEADER);
+			writer.write('\n');
+			for (String flag : flags) {
+				writer.write(flag);
+				writer.write('\n');
+			}
+			for (Entry entry : entries.values()) {
+				writer.write(entry.kind + " " + entry.size + " " + entry.lastModified + " " + entry.hash + " " + entry.path);
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * @return true when both manifests describe the same flags and the same file contents
+	 */
+	public boolean matches(InputManifest other) {
+		if (other == null || !flags.equals(other.flags) || entries.size() != other.entries.size()) {
+			return false;
+		}
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			Entry otherEntry = other.entries.get(entry.getKey());
+			if (otherEntry == null || entry.getValue().hash.equals("-") || !entry.getValue().hash.equals(otherEntry.hash)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true when the recorded sizes and modification times also match, so the stored manifest
+	 * does not need refreshing
+	 */
+	public boolean isUpToDate(InputManifest other) {
+		if (!matches(other)) {
+			return false;
+		}
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			Entry otherEntry = other.entries.get(entry.getKey());
+			if (entry.getValue().lastModified != otherEntry.lastModified || entry.getValue().size != otherEntry.size) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a build cache key covering the compiler version, the flags and the content of every
+	 * input. Paths are made relative to base, so checkouts in different locations share entries.
+	 */
+	public String getCacheKey(File base) {
+		Path basePath = base.toPath().toAbsolutePath().normalize();
+		BuildCache.KeyBuilder key = new BuildCache.KeyBuilder().add("closureCompilerTask");
+		for (String flag : flags) {
+			String value = flag.startsWith("flag ") ? flag.substring(5) : null;
+			if (value != null && new File(value).isAbsolute()) {
+				key.add("flag").add(relativize(basePath, value));
+			} else {
+				key.add(flag);
+			}
+		}
+		for (Entry entry : entries.values()) {
+			key.add(entry.kind).add(relativize(basePath, entry.path)).add(entry.hash);
+		}
+		return key.build();
+	}
+
+	private static String relativize(Path base, String path) {
+		try {
+			return base.relativize(new File(path).toPath().normalize()).toString().replace(File.separatorChar, '/');
+		} catch (IllegalArgumentException ex) {
+			// on another drive
+			return path;
+		}
+	}
+
+	public List<Entry> getEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	private void add(Entry entry) {
+		entries.put(entry.kind + " " + entry.path, entry);
+	}
+}
@@ -0,0 +1,170 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON encoding helpers for the plugin's reports and node protocols.
+ */
+public final class Json {
+	private Json() {
+	}
+
+	public static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder result = new StringBuilder(value.length() + 2);
+		result.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					result.append("\\\"");
+					break;
+				case '\\':
+					result.append("\\\\");
+					break;
+				case '\n':
+					result.append("\\n");
+					break;
+				case '\r':
+					result.append("\\r");
+					break;
+				case '\t':
+					result.append("\\t");
+					break;
+				default:
+					if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+						result.append(String.format("\\u%04x", (int) c));
+					} else {
+						result.append(c);
+					}
+			}
+		}
+		result.append('"');
+		return result.toString();
+	}
+
+	/**
+	 * Parses a JSON object whose values are all strings, such as the asset manifest
+	 */
+	public static Map<String, String> parseStringMap(String json) throws IOException {
+		Parser parser = new Parser(json);
+		Map<String, String> result = new LinkedHashMap<>();
+		parser.expect('{');
+		if (!parser.consume('}')) {
+			do {
+				String key = parser.string();
+				parser.expect(':');
+				result.put(key, parser.string());
+			} while (parser.consume(','));
+			parser.expect('}');
+		}
+		parser.skipWhitespace();
+		if (!parser.atEnd()) {
+			throw new IOException("Unexpected content after the JSON object at " + parser.position);
+		}
+		return result;
+	}
+
+	private static class Parser {
+		private final String json;
+		private int position;
+
+		Parser(String json) {
+			this.json = json;
+		}
+
+		boolean atEnd() {
+			return position >= json.length();
+		}
+
+		void skipWhitespace() {
+			while (!atEnd() && Character.isWhitespace(json.charAt(position))) {
+				position++;
+			}
+		}
+
+		boolean consume(char c) {
+			skipWhitespace();
+			if (!atEnd() && json.charAt(position) == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		void expect(char c) throws IOException {
+			if (!consume(c)) {
+				throw new IOException("Expected '" + c + "' at " + position);
+			}
+		}
+
+		String string() throws IOException {
+			expect('"');
+			StringBuilder result = new StringBuilder();
+			while (!atEnd()) {
+				char c = json.charAt(position++);
+				if (c == '"') {
+					return result.toString();
+				}
+				if (c != '\\') {
+					result.append(c);
+					continue;
+				}
+				if (atEnd()) {
+					break;
+				}
+				char escaped = json.charAt(position++);
+				switch (escaped) {
+					case 'b':
+						result.append('\b');
+						break;
+					case 'f':
+						result.append('\f');
+						break;
+					case 'n':
+						result.append('\n');
+						break;
+					case 'r':
+						result.append('\r');
+						break;
+					case 't':
+						result.append('\t');
+						break;
+					case 'u':
+						if (position + 4 > json.length()) {
+							throw new IOException("Truncated escape at " + position);
+						}
+						try {
+							result.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+						} catch (NumberFormatException ex) {
+							throw new IOException("Invalid escape at " + position);
+						}
+						position += 4;
+						break;
+					default:
+						result.append(escaped);
+				}
+			}
+			throw new IOException("Unterminated string");
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP endpoint that tells browsers which outputs a watch rebuild changed, as server-sent
+ * events on {@code /events}. Pages include {@code /livereload.js}, which swaps changed
+ * stylesheets in place and reloads the page when a script it loaded has changed.
+ *
+ * Events only name the changed files, never where they are on disk. Pages served from localhost
+ * and from the configured origin may listen to them, other origins are refused.
+ */
+public class LiveReloadServer {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String CLIENT = "(function () {\n"
+			+ "  var script = document.currentScript;\n"
+			+ "  var origin = script ? script.src.replace(/\\/livereload\\.js.*$/, '') : '';\n"
+			+ "  var source = new EventSource(origin + '/events');\n"
+			+ "  function matches(url, names) {\n"
+			+ "    var path = url.split('?')[0].split('#')[0];\n"
+			+ "    var name = path.substring(path.lastIndexOf('/') + 1);\n"
+			+ "    return names.indexOf(name) >= 0;\n"
+			+ "  }\n"
+			+ "  source.addEventListener('change', function (event) {\n"
+			+ "    var names = JSON.parse(event.data).outputs;\n"
+			+ "    var reload = names.length === 0;\n"
+			+ "    var links = document.querySelectorAll('link[rel=stylesheet][href]');\n"
+			+ "    for (var i = 0; i < links.length; i++) {\n"
+			+ "      if (matches(links[i].href, names)) {\n"
+			+ "        links[i].href = links[i].href.split('?')[0] + '?livereload=' + Date.now();\n"
+			+ "      }\n"
+			+ "    }\n"
+			+ "    var scripts = document.querySelectorAll('script[src]');\n"
+			+ "    for (var j = 0; j < scripts.length; j++) {\n"
+			+ "      reload = reload || matches(scripts[j].src, names);\n"
+			+ "    }\n"
+			+ "    if (reload) {\n"
+			+ "      location.reload();\n"
+			+ "    }\n"
+			+ "  });\n"
+			+ "})();\n";
+
+	private final Log log;
+	private final String allowedOrigin;
+	private final List<OutputStream> clients = new ArrayList<>();
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public LiveReloadServer(Log log) {
+		this(log, null);
+	}
+
+	/**
+	 * @param allowedOrigin an origin such as {@code http://dev.example.com:8080} whose pages may
+	 *                      listen to the events in addition to those served from localhost, or null
+	 */
+	public LiveReloadServer(Log log, String allowedOrigin) {
+		this.log = log;
+		this.allowedOrigin = allowedOrigin == null || allowedOrigin.trim().isEmpty() ? null : allowedOrigin.trim();
+	}
+
+	/**
+	 * Starts listening on the loopback interface
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/events", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String origin = exchange.getRequestHeaders().getFirst("Origin");
+				if (origin != null && !isAllowed(origin)) {
+					log.debug("Refused live reload connection from " + origin);
+					exchange.sendResponseHeaders(403, -1);
+					exchange.close();
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+				exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+				if (origin != null) {
+					exchange.getResponseHeaders().set("Access-Control-Allow-Origin", origin);
+					exchange.getResponseHeaders().set("Vary", "Origin");
+				}
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				out.write(": connected\n\n".getBytes(UTF8));
+				out.flush();
+				synchronized (clients) {
+					clients.add(out);
+				}
+			}
+		});
+		server.createContext("/livereload.js", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = CLIENT.getBytes(UTF8);
+				exchange.getResponseHeaders().set("Content-Type", "application/javascript; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public int getClientCount() {
+		synchronized (clients) {
+			return clients.size();
+		}
+	}
+
+	/**
+	 * Tells every connected browser which outputs changed. No outputs means the rebuilt tasks
+	 * don't declare theirs, and pages should reload.
+	 */
+	public void announce(Collection<String> tasks, Collection<File> outputs) {
+		StringBuilder data = new StringBuilder("{\"tasks\": [");
+		String separator = "";
+		for (String task : tasks) {
+			data.append(separator).append(Json.quote(task));
+			separator = ", ";
+		}
+		data.append("], \"outputs\": [");
+		separator = "";
+		for (File output : outputs) {
+			data.append(separator).append(Json.quote(output.getName()));
+			separator = ", ";
+		}
+		data.append("]}");
+		byte[] event = ("event: change\ndata: " + data + "\n\n").getBytes(UTF8);
+
+		synchronized (clients) {
+			for (int i = clients.size() - 1; i >= 0; i--) {
+				OutputStream out = clients.get(i);
+				try {
+					out.write(event);
+					out.flush();
+				} catch (IOException ex) {
+					// the page was closed
+					clients.remove(i);
+					closeQuietly(out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether a page from origin may listen to the events, pages served from localhost and
+	 * from the configured origin may
+	 */
+	boolean isAllowed(String origin) {
+		if (origin.equals(allowedOrigin)) {
+			return true;
+		}
+		try {
+			URI uri = new URI(origin);
+			String host = uri.getHost();
+			return ("http".equals(uri.getScheme()) || "https".equals(uri.getScheme()))
+					&& ("localhost".equals(host) || "127.0.0.1".equals(host) || "[::1]".equals(host));
+		} catch (URISyntaxException ex) {
+			return false;
+		}
+	}
+
+	public void stop() {
+		synchronized (clients) {
+			for (OutputStream out : clients) {
+				closeQuietly(out);
+			}
+			clients.clear();
+		}
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private void closeQuietly(OutputStream out) {
+		try {
+			out.close();
+		} catch (IOException ex) {
+			log.debug("Failed to close live reload connection: " + ex.getMessage());
+		}
+	}
+}
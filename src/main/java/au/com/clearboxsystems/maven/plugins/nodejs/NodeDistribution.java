@@ -0,0 +1,212 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+/**
+ * Downloads and installs node distributions into a shared cache directory.
+ *
+ * Installs are safe to run from several builds at once: a file lock serialises them, downloads are
+ * verified against their SHA-256 checksum, archives are stored by their hash, and the extracted
+ * tree is moved into place with an atomic rename before it is marked as installed. An install
+ * without its marker, such as one left behind by a killed build, is replaced.
+ */
+public class NodeDistribution {
+	private static final Object JVM_LOCK = new Object();
+	private static final int TIMEOUT = 60000;
+
+	private final Log log;
+	private final File directory;
+
+	public NodeDistribution(Log log, File directory) {
+		this.log = log;
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the root of the install, the extracted directory or the executable itself
+	 */
+	public static File getInstallRoot(NodeJsMojoBase.NodeInstallInformation information) {
+		if (information.archive.getName().endsWith(".tar.gz")) {
+			return information.executable.getParentFile().getParentFile();
+		}
+		return information.executable;
+	}
+
+	public static File getMarker(File installRoot) {
+		return new File(installRoot.getParentFile(), "." + installRoot.getName() + ".installed");
+	}
+
+	public boolean isInstalled(NodeJsMojoBase.NodeInstallInformation information) {
+		return information.executable.exists() && getMarker(getInstallRoot(information)).isFile();
+	}
+
+	/**
+	 * Makes sure the distribution is installed, downloading it if required
+	 *
+	 * @param checksum         the expected SHA-256 of the archive, or null to look it up in
+	 *                         SHASUMS256.txt
+	 * @param allowUnverified install the archive when no checksum is available for it, instead of
+	 *                         failing
+	 */
+	public void install(NodeJsMojoBase.NodeInstallInformation information, String checksum, boolean allowUnverified) throws IOException, MojoExecutionException {
+		if (isInstalled(information)) {
+			return;
+		}
+		directory.mkdirs();
+		synchronized (JVM_LOCK) {
+			try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, ".lock"), "rw");
+				 FileChannel channel = lockFile.getChannel();
+				 FileLock lock = channel.lock()) {
+				// another build may have finished the install while we waited for the lock
+				if (isInstalled(information)) {
+					return;
+				}
+				installLocked(information, checksum, allowUnverified);
+			}
+		}
+	}
+
+	private void installLocked(NodeJsMojoBase.NodeInstallInformation information, String checksum, boolean allowUnverified) throws IOException, MojoExecutionException {
+		String expected = checksum != null ? checksum.trim().toLowerCase() : fetchChecksum(information.url);
+		if (expected == null && !allowUnverified) {
+			throw new MojoExecutionException("No SHA-256 checksum is available for " + information.url
+					+ ", set nodeJsChecksum to verify it, or nodejs.allowUnverifiedNode to install it anyway");
+		}
+		File archive = expected != null ? new File(directory, "archives" + File.separator + expected + "-" + information.archive.getName()) : null;
+
+		if (archive == null || !archive.isFile() || !Digests.sha256(archive).equals(expected)) {
+			File download = File.createTempFile(".download-", ".tmp", directory);
+			try {
+				log.info("Downloading Node JS from " + information.url);
+				String actual = download(information.url, download);
+				if (expected == null) {
+					log.warn("No SHA-256 checksum is available for " + information.url + ", it could not be verified (sha256 " + actual + ")");
+				} else if (!expected.equals(actual)) {
+					throw new MojoExecutionException("Checksum mismatch for " + information.url + ": expected " + expected + " but was " + actual);
+				}
+				archive = new File(directory, "archives" + File.separator + actual + "-" + information.archive.getName());
+				archive.getParentFile().mkdirs();
+				Files.move(download.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				download.delete();
+			}
+		}
+
+		File installRoot = getInstallRoot(information);
+		File marker = getMarker(installRoot);
+		marker.delete();
+		if (installRoot.exists()) {
+			log.info("Removing incomplete node install " + installRoot);
+			File stale = new File(directory, ".stale-" + System.nanoTime());
+			Files.move(installRoot.toPath(), stale.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			FileUtils.forceDelete(stale);
+		}
+
+		if (archive.getName().endsWith(".tar.gz")) {
+			Path staging = Files.createTempDirectory(directory.toPath(), ".extract-");
+			try {
+				log.info("Extracting " + archive.getName());
+				new TarExtractor().extract(archive.toPath(), staging);
+				Path extracted = staging.resolve(installRoot.getName());
+				if (!Files.isDirectory(extracted)) {
+					throw new MojoExecutionException("Archive " + information.url + " does not contain " + installRoot.getName());
+				}
+				Files.move(extracted, installRoot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				FileUtils.deleteDirectory(staging.toFile());
+			}
+		} else {
+			File staging = File.createTempFile(".install-", ".tmp", directory);
+			Files.copy(archive.toPath(), staging.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			staging.setExecutable(true);
+			Files.move(staging.toPath(), installRoot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		if (!information.executable.exists()) {
+			throw new MojoExecutionException("Node executable " + information.executable + " missing after install");
+		}
+		information.executable.setExecutable(true);
+		Files.write(marker.toPath(), Digests.sha256(archive).getBytes("UTF-8"));
+	}
+
+	/**
+	 * Looks the archive up in the SHASUMS256.txt published alongside it
+	 */
+	private String fetchChecksum(URL url) {
+		String path = url.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		try {
+			URLConnection connection = open(new URL(url, "SHASUMS256.txt"));
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charset.forName("UTF-8")))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] parts = line.trim().split("\\s+");
+					if (parts.length == 2 && parts[1].equals(name)) {
+						return parts[0].toLowerCase();
+					}
+				}
+			}
+		} catch (FileNotFoundException ex) {
+			log.debug("No SHASUMS256.txt next to " + url);
+		} catch (IOException ex) {
+			log.debug("Unable to read SHASUMS256.txt next to " + url + ": " + ex);
+		}
+		return null;
+	}
+
+	private static String download(URL url, File target) throws IOException {
+		MessageDigest digest = Digests.newSha256();
+		URLConnection connection = open(url);
+		try (InputStream in = connection.getInputStream(); OutputStream out = Files.newOutputStream(target.toPath())) {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				out.write(buffer, 0, read);
+			}
+		}
+		return Digests.toHex(digest.digest());
+	}
+
+	private static URLConnection open(URL url) throws IOException {
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		return connection;
+	}
+}
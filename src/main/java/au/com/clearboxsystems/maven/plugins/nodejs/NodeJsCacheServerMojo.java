@@ -0,0 +1,106 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Runs a remote build cache server backed by a directory, until the build is stopped. Builds use
+ * it by setting {@code nodejs.remoteBuildCache} to {@code http://<host>:<port>/}.
+ */
+@Mojo(name = "cache-server", requiresProject = false)
+public class NodeJsCacheServerMojo extends AbstractMojo {
+
+	/**
+	 * Directory the cache entries are kept in
+	 */
+	@Parameter(property = "nodejs.cacheServer.directory", defaultValue = "${settings.localRepository}/au/com/clearboxsystems/maven/plugins/nodejs/build-cache-server")
+	protected File directory;
+
+	/**
+	 * Address to listen on, set it to 0.0.0.0 or the address of an interface to serve other
+	 * machines
+	 */
+	@Parameter(property = "nodejs.cacheServer.host", defaultValue = "127.0.0.1")
+	protected String host;
+
+	@Parameter(property = "nodejs.cacheServer.port", defaultValue = "5071")
+	protected int port;
+
+	/**
+	 * Number of requests served at the same time
+	 */
+	@Parameter(property = "nodejs.cacheServer.threads", defaultValue = "16")
+	protected int threads;
+
+	/**
+	 * Largest entry accepted, in megabytes
+	 */
+	@Parameter(property = "nodejs.cacheServer.maxEntrySize", defaultValue = "512")
+	protected long maxEntrySize;
+
+	/**
+	 * Token uploads must carry, as a bearer token or as the password in the remote cache URL.
+	 * Without one anyone who can reach the server can upload.
+	 */
+	@Parameter(property = "nodejs.cacheServer.token")
+	protected String token;
+
+	/**
+	 * Serve the entries in directory without accepting uploads
+	 */
+	@Parameter(property = "nodejs.cacheServer.readOnly", defaultValue = "false")
+	protected boolean readOnly;
+
+	@Override
+	public void execute() throws MojoExecutionException {
+		BuildCacheServer server = new BuildCacheServer(getLog(), directory, maxEntrySize * 1024 * 1024, token, readOnly);
+		try {
+			server.start(host, port, threads);
+		} catch (IOException ex) {
+			throw new MojoExecutionException("Unable to start the build cache server on " + host + ":" + port, ex);
+		}
+		getLog().info("Serving the build cache in " + directory + " on http://" + host + ":" + server.getPort() + "/"
+				+ (readOnly ? ", read only" : ""));
+		if (!readOnly && (token == null || token.isEmpty()) && !isLoopback(host)) {
+			getLog().warn("The build cache accepts uploads from anyone who can reach " + host + ", set nodejs.cacheServer.token to require a token");
+		}
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static boolean isLoopback(String host) {
+		try {
+			return InetAddress.getByName(host).isLoopbackAddress();
+		} catch (UnknownHostException ex) {
+			return false;
+		}
+	}
+}
@@ -43,6 +43,10 @@ import java.util.*;
 public class NodeJsCompilerMojo extends NodeJsMojoBase {
 	@Override
 	public void execute() throws MojoExecutionException {
-		run();
+		try {
+			run();
+		} finally {
+			stopDaemons();
+		}
 	}
 }
@@ -0,0 +1,207 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+import org.codehaus.plexus.util.cli.StreamPumper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A node process that stays alive between tasks run in the same working directory. Tasks are sent
+ * to nodejs-daemon.js over stdin and their output and exit code are read back from stdout, so the
+ * cost of starting node and loading shared modules is only paid once.
+ */
+public class NodeJsDaemon {
+	public static final String SCRIPT_NAME = "nodejs-daemon.js";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Timer WATCHDOG = new Timer("nodejs-daemon-watchdog", true);
+
+	/**
+	 * The node version can't tell when a task has finished, so it can't run tasks in a daemon
+	 */
+	public static class UnsupportedException extends IOException {
+		public UnsupportedException(String message) {
+			super(message);
+		}
+	}
+
+	private final File workingDirectory;
+	private final Process process;
+	private final Writer input;
+	private final BufferedReader output;
+	private final StreamPumper errorPumper;
+	private volatile boolean reusable = true;
+	private volatile boolean timedOut;
+
+	public NodeJsDaemon(Commandline commandLine, StreamConsumer daemonErrors) throws CommandLineException, IOException {
+		this.workingDirectory = commandLine.getWorkingDirectory();
+		this.process = commandLine.execute();
+		this.input = new OutputStreamWriter(process.getOutputStream(), UTF8);
+		this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF8));
+		this.errorPumper = new StreamPumper(process.getErrorStream(), daemonErrors);
+		this.errorPumper.start();
+
+		String line = output.readLine();
+		if ("N".equals(line)) {
+			close();
+			throw new UnsupportedException("Node in " + workingDirectory + " can't report its pending work, which daemon mode needs");
+		}
+		if (!"R".equals(line)) {
+			close();
+			throw new IOException("Node daemon in " + workingDirectory + " failed to start");
+		}
+	}
+
+	/**
+	 * Copies the daemon script into the given directory, unless an identical copy is already there
+	 */
+	public static File installScript(File directory) throws IOException {
+		byte[] script;
+		try (InputStream in = NodeJsDaemon.class.getResourceAsStream(SCRIPT_NAME)) {
+			script = IOUtil.toByteArray(in);
+		}
+		File file = new File(directory, SCRIPT_NAME);
+		if (file.isFile() && Digests.sha256(file).equals(Digests.sha256(script))) {
+			return file;
+		}
+		directory.mkdirs();
+		File temp = File.createTempFile(SCRIPT_NAME, ".tmp", directory);
+		Files.write(temp.toPath(), script);
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return file;
+	}
+
+	/**
+	 * Runs the named script with the given arguments, one task at a time. A task that doesn't
+	 * finish in time, or that leaves work pending when it exits, stops the daemon.
+	 *
+	 * @param timeoutMillis time the task may take, 0 for no limit
+	 * @return the exit code of the task
+	 */
+	public synchronized int execute(String name, String[] arguments, StreamConsumer systemOut, StreamConsumer systemErr, long timeoutMillis) throws IOException {
+		StringBuilder request = new StringBuilder();
+		request.append("{\"name\":").append(Json.quote(name)).append(",\"args\":[");
+		if (arguments != null) {
+			for (int i = 0; i < arguments.length; i++) {
+				if (i > 0) {
+					request.append(',');
+				}
+				request.append(Json.quote(arguments[i]));
+			}
+		}
+		request.append("]}\n");
+		TimerTask watchdog = null;
+		if (timeoutMillis > 0) {
+			watchdog = new TimerTask() {
+				@Override
+				public void run() {
+					timedOut = true;
+					destroy();
+				}
+			};
+			WATCHDOG.schedule(watchdog, timeoutMillis);
+		}
+		try {
+			input.write(request.toString());
+			input.flush();
+
+			String line;
+			while ((line = output.readLine()) != null) {
+				String text = line.length() > 2 ? line.substring(2) : "";
+				if (line.startsWith("O")) {
+					systemOut.consumeLine(text);
+				} else if (line.startsWith("E")) {
+					systemErr.consumeLine(text);
+				} else if (line.equals("L")) {
+					reusable = false;
+					systemErr.consumeLine("The task left timers or handles open, stopping its node daemon");
+				} else if (line.startsWith("X")) {
+					if (!reusable) {
+						destroy();
+					}
+					try {
+						return Integer.parseInt(text.trim());
+					} catch (NumberFormatException ex) {
+						return 1;
+					}
+				}
+			}
+		} catch (IOException ex) {
+			if (!timedOut) {
+				throw ex;
+			}
+		} finally {
+			if (watchdog != null) {
+				watchdog.cancel();
+			}
+		}
+		if (timedOut) {
+			throw new IOException(name + " did not finish within " + timeoutMillis / 1000 + "s, stopped the node daemon in " + workingDirectory);
+		}
+		throw new IOException("Node daemon in " + workingDirectory + " exited unexpectedly");
+	}
+
+	/**
+	 * @return whether the daemon can run another task
+	 */
+	public boolean isAlive() {
+		if (!reusable || timedOut) {
+			return false;
+		}
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException ex) {
+			return true;
+		}
+	}
+
+	/**
+	 * Kills the daemon, a task it is running fails with an IOException
+	 */
+	public void destroy() {
+		reusable = false;
+		process.destroy();
+		IOUtil.close(input);
+	}
+
+	public void close() {
+		IOUtil.close(input);
+		try {
+			process.waitFor();
+		} catch (InterruptedException ex) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+		}
+		IOUtil.close(output);
+		errorPumper.close();
+	}
+}
@@ -17,27 +17,38 @@ package au.com.clearboxsystems.maven.plugins.nodejs;
  */
 
 import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.SourceFile;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.Base64;
 import org.codehaus.plexus.util.Os;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.cli.Arg;
+import org.codehaus.plexus.util.cli.CommandLineCallable;
 import org.codehaus.plexus.util.cli.CommandLineException;
 import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public abstract class NodeJsMojoBase extends AbstractMojo {
 
@@ -64,13 +75,156 @@ public abstract class NodeJsMojoBase extends AbstractMojo {
 	protected boolean stopOnError;
 
 	/**
-	 * Default location where nodejs will be extracted to and run from
+	 * Stop the build as soon as a task fails: no further task is started and the node processes of
+	 * the tasks still running are killed. Implies stopOnError.
 	 */
-	@Parameter(defaultValue = "${java.io.tmpdir}/nodejs")
+	@Parameter(property = "nodejs.failFast", defaultValue = "false")
+	protected boolean failFast;
+
+	/**
+	 * Maximum number of tasks run at the same time, defaults to the number of available processors
+	 */
+	@Parameter(property = "nodejs.threads")
+	protected int threads;
+
+	/**
+	 * Run NodeJsTasks in one long lived node process per working directory instead of starting
+	 * node for every run. Task scripts must finish by calling process.exit() or by running out of
+	 * pending work.
+	 */
+	@Parameter(property = "nodejs.daemon")
+	protected boolean daemon;
+
+	/**
+	 * Seconds a task may run in a node daemon before the daemon is stopped and the task fails, 0
+	 * for no limit
+	 */
+	@Parameter(property = "nodejs.daemon.timeout", defaultValue = "600")
+	protected int daemonTimeout;
+
+	/**
+	 * Restore the outputs of NodeJsTasks that declare inputs and outputs, and of closure compiler
+	 * tasks, from the build cache instead of running them, when nothing they depend on has changed
+	 */
+	@Parameter(property = "nodejs.buildCache", defaultValue = "true")
+	protected boolean useBuildCache;
+
+	/**
+	 * Base URL of a build cache shared over HTTP. Outputs missing from the local build cache are
+	 * looked up with GET {@code <url>/<key>} and outputs built locally are uploaded with PUT.
+	 */
+	@Parameter(property = "nodejs.remoteBuildCache")
+	protected String remoteBuildCache;
+
+	/**
+	 * Upload outputs built locally to the remote build cache, turn off for builds that should only
+	 * read from it
+	 */
+	@Parameter(property = "nodejs.remoteBuildCache.push", defaultValue = "true")
+	protected boolean pushToRemoteBuildCache;
+
+	/**
+	 * Run closure compiles in a pool of separate JVMs, started with compilerJvmArgs and reused by
+	 * every task and module of the build, so large compiles don't compete with Maven for heap
+	 */
+	@Parameter(property = "nodejs.closure.fork", defaultValue = "false")
+	protected boolean forkCompiler;
+
+	/**
+	 * Arguments of the forked compiler JVMs, such as heap size and GC settings
+	 */
+	@Parameter(property = "nodejs.closure.jvmArgs", defaultValue = "-Xmx1g -Xss16m")
+	protected String compilerJvmArgs;
+
+	/**
+	 * Number of forked compiler JVMs, which is also the number of closure compiles run at once
+	 */
+	@Parameter(property = "nodejs.closure.forks", defaultValue = "1")
+	protected int compilerForks;
+
+	/**
+	 * JSON report of the time and resources used by each task
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/nodejs-metrics.json")
+	protected File metricsFile;
+
+	/**
+	 * JSON report of the errors and warnings reported by the tasks, with the file, line and
+	 * column they point at
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/nodejs-diagnostics.json")
+	protected File diagnosticsFile;
+
+	/**
+	 * Executable used to write the brotli compressed outputs of closure compiler tasks
+	 */
+	@Parameter(property = "nodejs.brotli", defaultValue = "brotli")
+	protected String brotliExecutable;
+
+	/**
+	 * JSON manifest mapping the outputs of closure compiler tasks with hashFileNames set to their
+	 * content hashed copies, names in it are relative to its directory
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/nodejs-assets.json")
+	protected File assetManifest;
+
+	/**
+	 * Location of the local build cache
+	 */
+	@Parameter(defaultValue = "${settings.localRepository}/au/com/clearboxsystems/maven/plugins/nodejs/build-cache")
+	protected File buildCacheDirectory;
+
+	/**
+	 * Default location where nodejs will be extracted to and run from. Installs in this directory
+	 * are shared, and locked while being installed, between builds on the same machine.
+	 */
+	@Parameter(defaultValue = "${settings.localRepository}/au/com/clearboxsystems/maven/plugins/nodejs/node")
 	protected File nodeJsDirectory;
 
+	/**
+	 * Expected SHA-256 checksum of the node download. When not set the checksum is read from the
+	 * SHASUMS256.txt published next to the download, if there is one.
+	 */
+	@Parameter
+	protected String nodeJsChecksum;
+
+	/**
+	 * Install a node download that can't be verified, because neither nodeJsChecksum nor a
+	 * SHASUMS256.txt next to the download gives its checksum
+	 */
+	@Parameter(property = "nodejs.allowUnverifiedNode", defaultValue = "false")
+	protected boolean allowUnverifiedNode;
+
+	/**
+	 * npm's command line script, run by npmInstallTasks. Defaults to the npm bundled with the node
+	 * distribution.
+	 */
+	@Parameter(property = "nodejs.npmCli")
+	protected File npmCli;
+
+	/**
+	 * Location of the node_modules trees installed by npmInstallTasks, shared between builds on
+	 * the same machine
+	 */
+	@Parameter(defaultValue = "${settings.localRepository}/au/com/clearboxsystems/maven/plugins/nodejs/node-modules-cache")
+	protected File nodeModulesCacheDirectory;
+
+	private final Map<File, NodeJsDaemon> daemons = new HashMap<>();
+
+	private volatile boolean daemonUnsupported;
+
+	private Precompressor precompressor;
+
+	private AssetManifest assets;
+
+	private RemoteBuildCache remoteBuildCacheClient;
+
+	private volatile Diagnostics diagnostics = new Diagnostics();
+
+	private final Map<Task, ClosureCompilerWorker> compilerWorkers = Collections.synchronizedMap(new IdentityHashMap<Task, ClosureCompilerWorker>());
+
 	protected static NodeInstallInformation getNodeInstallationInformation(String version, File directory) throws MojoExecutionException {
-		String baseURL = "http://nodejs.org/dist/v" + version + "/";
+		String baseURL = "https://nodejs.org/dist/v" + version + "/";
 		String basePath = directory.getAbsolutePath() + File.separator;
 		String arch;
 		if (Os.isArch("x86") || Os.isArch("i386")) {
@@ -123,83 +277,486 @@ public abstract class NodeJsMojoBase extends AbstractMojo {
 			throw new MojoExecutionException("Malformed provided node URL", ex);
 		}
 
+		final BuildMetrics metrics = new BuildMetrics();
+		BuildMetrics.TaskMetrics setup = metrics.start("node " + nodeJsVersion, "NodeInstall");
+		String setupStatus = "failed";
 		try {
-			if (!information.executable.exists()) {
-				getLog().info("Downloading Node JS from " + information.url);
-				FileUtils.copyURLToFile(information.url, information.archive);
-				if (information.archive.getName().endsWith(".tar.gz")) {
-					Commandline commandLine = getCommandLine(nodeJsDirectory, "tar", "xf", information.archive.getName());
-					executeCommandLine(commandLine);
+			if (!SharedRuntime.isInstalled(information.executable)) {
+				new NodeDistribution(getLog(), nodeJsDirectory).install(information, nodeJsChecksum, allowUnverifiedNode);
+				SharedRuntime.setInstalled(information.executable);
+			}
+			setupStatus = "ok";
+		} catch (IOException ex) {
+			getLog().error("Failed to downloading nodeJs from " + information.url, ex);
+			throw new MojoExecutionException("Failed to downloading nodeJs from " + information.url, ex);
+		} finally {
+			metrics.finish(setup, setupStatus);
+		}
+
+		List<Task> selected = new ArrayList<>();
+		for (Task task : tasks) {
+			if (filter == null || filter.accept(task)) {
+				selected.add(task);
+			}
+		}
+
+		List<TaskScheduler.Failure> failures = runTasks(selected, information, metrics);
+		awaitPrecompression(metrics);
+		awaitUploads(metrics);
+		writeAssetManifest();
+		reportMetrics(metrics);
+		reportDiagnostics();
+
+		for (TaskScheduler.Failure failure : failures) {
+			if (failure.cancelled) {
+				getLog().warn("Cancelled task " + failure.task.getDisplayName() + " after an earlier task failed");
+				continue;
+			}
+			if (failure.cause instanceof CommandLineException) {
+				getLog().error("Command Line Exception in task " + failure.task, failure.cause);
+				throw new MojoExecutionException("Command execution failed.", failure.cause);
+			}
+			if (failure.cause instanceof MojoFailureException) {
+				getLog().error(failure.cause.getMessage());
+				continue;
+			}
+			getLog().error("Execution Exception in task " + failure.task, failure.cause);
+		}
+		if (!failures.isEmpty() && (stopOnError || failFast)) {
+			throw new MojoExecutionException("Execution Exception", failures.get(0).cause);
+		}
+
+		return information;
+	}
+
+	/**
+	 * Runs the tasks on the task scheduler, independent tasks at the same time, recording each
+	 * in metrics. The threads are shared with every other execution of the plugin in the build.
+	 * Tasks that don't run because a dependency failed are recorded as skipped. The diagnostics
+	 * of the tasks replace those of the previous run.
+	 *
+	 * @return the failures, in the order they occurred
+	 */
+	protected List<TaskScheduler.Failure> runTasks(List<Task> selected, final NodeInstallInformation installation, final BuildMetrics metrics) throws MojoExecutionException {
+		final Map<Task, Boolean> started = Collections.synchronizedMap(new IdentityHashMap<Task, Boolean>());
+		final Diagnostics runDiagnostics = new Diagnostics();
+		diagnostics = runDiagnostics;
+		int poolSize = getThreadCount();
+		final TaskScheduler scheduler = new TaskScheduler(selected, tasks, poolSize);
+		scheduler.setFailFast(failFast);
+		List<TaskScheduler.Failure> failures = scheduler.run(new TaskScheduler.TaskExecutor() {
+			@Override
+			public void execute(Task task) throws Exception {
+				started.put(task, Boolean.TRUE);
+				BuildMetrics.TaskMetrics taskMetrics = metrics.start(task.getDisplayName(), task.getClass().getSimpleName());
+				String status = "failed";
+				try {
+					executeTask(task, installation);
+					status = "ok";
+				} catch (Exception ex) {
+					if (scheduler.isCancelled()) {
+						status = "cancelled";
+						throw ex;
+					}
+					if (failFast) {
+						// daemon tasks block on their daemon and can't be interrupted
+						destroyDaemons();
+					}
+					if (!runDiagnostics.hasErrors(task)) {
+						runDiagnostics.add(task, new Diagnostics.Diagnostic(Diagnostics.ERROR, null, 0, 0, null, String.valueOf(ex.getMessage())));
+					}
+					throw ex;
+				} finally {
+					metrics.finish(taskMetrics, status);
 				}
 			}
+		}, SharedRuntime.getTaskPool(poolSize));
+		for (Task task : selected) {
+			if (!started.containsKey(task)) {
+				metrics.skipped(task.getDisplayName(), task.getClass().getSimpleName());
+			}
+		}
+		return failures;
+	}
 
-			for (Task task : tasks) {
-				if (filter == null || filter.accept(task)) {
-					executeTask(task, information);
+	/**
+	 * Waits for the compressed copies of outputs that are still being written
+	 */
+	protected void awaitPrecompression(BuildMetrics metrics) throws MojoExecutionException {
+		Precompressor compressor = getPrecompressor(false);
+		if (compressor == null || !compressor.hasPending()) {
+			return;
+		}
+		BuildMetrics.TaskMetrics compressMetrics = metrics.start("compressed outputs", "Precompress");
+		int failures;
+		String status = "failed";
+		try {
+			failures = compressor.await();
+			status = "ok";
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while compressing outputs", ex);
+		} finally {
+			metrics.finish(compressMetrics, status);
+		}
+		if (failures > 0) {
+			compressMetrics.setStatus("failed");
+			if (stopOnError) {
+				throw new MojoExecutionException(failures + " compressed outputs could not be written");
+			}
+		}
+	}
+
+	/**
+	 * Waits for the outputs that are still being uploaded to the remote build cache. Uploads that
+	 * fail are logged and don't fail the build.
+	 */
+	protected void awaitUploads(BuildMetrics metrics) throws MojoExecutionException {
+		RemoteBuildCache remote = getRemoteBuildCache();
+		if (remote == null || !remote.hasPending()) {
+			return;
+		}
+		BuildMetrics.TaskMetrics uploadMetrics = metrics.start("remote build cache", "CacheUpload");
+		String status = "failed";
+		try {
+			if (remote.await() == 0) {
+				status = "ok";
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while uploading to the remote build cache", ex);
+		} finally {
+			metrics.finish(uploadMetrics, status);
+		}
+	}
+
+	private synchronized RemoteBuildCache getRemoteBuildCache() throws MojoExecutionException {
+		if (remoteBuildCacheClient == null && remoteBuildCache != null && !remoteBuildCache.trim().isEmpty()) {
+			try {
+				remoteBuildCacheClient = new RemoteBuildCache(getLog(), new URL(remoteBuildCache.trim()), pushToRemoteBuildCache);
+			} catch (MalformedURLException ex) {
+				throw new MojoExecutionException("Malformed remote build cache URL " + remoteBuildCache, ex);
+			}
+		}
+		return remoteBuildCacheClient;
+	}
+
+	private List<String> getCompilerJvmArgs() {
+		List<String> jvmArgs = new ArrayList<>();
+		if (compilerJvmArgs != null) {
+			for (String arg : compilerJvmArgs.trim().split("\\s+")) {
+				if (!arg.isEmpty()) {
+					jvmArgs.add(arg);
 				}
 			}
+		}
+		return jvmArgs;
+	}
+
+	private BuildCache getBuildCache() throws MojoExecutionException {
+		return new BuildCache(buildCacheDirectory, getRemoteBuildCache());
+	}
+
+	private synchronized Precompressor getPrecompressor(boolean create) {
+		if (precompressor == null && create) {
+			precompressor = new Precompressor(getLog(), getThreadCount(), brotliExecutable != null ? brotliExecutable : "brotli");
+		}
+		return precompressor;
+	}
+
+	private synchronized AssetManifest getAssetManifest(boolean create) {
+		if (assets == null && create && assetManifest != null) {
+			assets = new AssetManifest(assetManifest);
+		}
+		return assets;
+	}
+
+	/**
+	 * Writes the content hashed names recorded by the tasks of the run to the asset manifest
+	 */
+	protected void writeAssetManifest() throws MojoExecutionException {
+		AssetManifest manifest = getAssetManifest(false);
+		if (manifest == null || manifest.isEmpty()) {
+			return;
+		}
+		try {
+			if (manifest.write()) {
+				getLog().info("Updated asset manifest " + manifest.getFile());
+			}
 		} catch (IOException ex) {
-			getLog().error("Failed to downloading nodeJs from " + nodeJsURL, ex);
-			throw new MojoExecutionException("Failed to downloading nodeJs from " + nodeJsURL, ex);
-		} catch (MojoExecutionException ex) {
-			getLog().error("Execution Exception", ex);
-			if (stopOnError)
-				throw new MojoExecutionException("Execution Exception", ex);
-		} catch (CommandLineException ex) {
-			getLog().error("Command Line Exception", ex);
-			throw new MojoExecutionException("Command execution failed.", ex);
+			throw new MojoExecutionException("Failed to write asset manifest " + manifest.getFile(), ex);
 		}
+	}
 
-		return information;
+	/**
+	 * Writes the content hashed copies of the javascript outputs of the task and queues compressed
+	 * copies of both, which are written while the build carries on
+	 */
+	private void publishOutputs(ClosureCompilerTask task, List<File> outputFiles) throws MojoExecutionException {
+		List<File> published = new ArrayList<>();
+		for (File output : outputFiles) {
+			if (output.isFile() && !output.getName().endsWith(".map")) {
+				published.add(output);
+			}
+		}
+		if (task.hashFileNames) {
+			AssetManifest manifest = getAssetManifest(true);
+			for (File output : new ArrayList<>(published)) {
+				try {
+					File hashed = AssetManifest.writeHashedCopy(output, Digests.sha256(output));
+					manifest.put(output, hashed);
+					published.add(hashed);
+				} catch (IOException ex) {
+					throw new MojoExecutionException("Failed to write content hashed copy of " + output, ex);
+				}
+			}
+		}
+		if (!task.gzip && !task.brotli) {
+			return;
+		}
+		Precompressor compressor = getPrecompressor(true);
+		for (File output : published) {
+			compressor.submit(output, task.gzip, task.brotli);
+		}
 	}
 
-	protected void executeClosureCompiler(ClosureCompilerTask task) {
-		getLog().info("Closure Compiler compiling: " + task.sources + " with " + task.compilationLevel);
+	protected void reportMetrics(BuildMetrics metrics) {
+		metrics.logSummary(getLog());
+		if (metricsFile != null) {
+			try {
+				metrics.writeJson(metricsFile);
+			} catch (IOException ex) {
+				getLog().warn("Unable to write metrics to " + metricsFile, ex);
+			}
+		}
+	}
+
+	protected void reportDiagnostics() {
+		Diagnostics current = diagnostics;
+		current.logSummary(getLog());
+		if (diagnosticsFile != null) {
+			try {
+				current.writeJson(diagnosticsFile);
+			} catch (IOException ex) {
+				getLog().warn("Unable to write diagnostics to " + diagnosticsFile, ex);
+			}
+		}
+	}
+
+	protected int getThreadCount() {
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	protected void executeClosureCompiler(ClosureCompilerTask task) throws MojoExecutionException, MojoFailureException {
 		ClosureCompilerRunner closureCompiler = buildClosureCompilerRunner(task);
-		if (closureCompiler.shouldRunCompiler()) {
-			closureCompiler.myRun();
+
+		List<File> outputFiles = task.getOutputFiles();
+		File manifestFile = InputManifest.getManifestFile(task.getManifestTarget());
+		InputManifest previous = task.incremental ? InputManifest.load(manifestFile) : null;
+		BuildMetrics.TaskMetrics metrics = BuildMetrics.current();
+		InputManifest current;
+		try {
+			current = InputManifest.create(closureCompiler.getArguments(), previous);
+			if (task.hasSourceMap()) {
+				current.addFlag("sourceMap=" + (task.isSourceMapInline() ? "inline" : "file"));
+			}
+			for (InputManifest.Entry entry : current.getEntries()) {
+				metrics.addInputBytes(entry.size);
+			}
+			if (allExist(outputFiles) && current.matches(previous)) {
+				getLog().info("Closure Compiler skipping " + task.getDisplayName() + ", inputs are unchanged");
+				metrics.setStatus("up-to-date");
+				metrics.addOutputBytes(totalLength(outputFiles));
+				if (!current.isUpToDate(previous)) {
+					current.save(manifestFile);
+				}
+				publishOutputs(task, outputFiles);
+				return;
+			}
+		} catch (IOException ex) {
+			throw new MojoExecutionException("Failed to read closure compiler inputs for " + task.getDisplayName(), ex);
+		}
+
+		BuildCache buildCache = null;
+		String cacheKey = null;
+		if (useBuildCache) {
+			buildCache = getBuildCache();
+			cacheKey = current.getCacheKey(task.getManifestTarget().getAbsoluteFile().getParentFile());
+			try {
+				if (buildCache.restore(cacheKey, outputFiles)) {
+					getLog().info("Restored outputs of " + task.getDisplayName() + " from the build cache");
+					metrics.setStatus("cached");
+					metrics.addOutputBytes(totalLength(outputFiles));
+					saveManifest(task, current, manifestFile);
+					publishOutputs(task, outputFiles);
+					return;
+				}
+			} catch (IOException ex) {
+				getLog().warn("Discarded the unusable build cache entry of " + task.getDisplayName() + ": " + ex.getMessage());
+			}
+		}
+
+		getLog().info("Closure Compiler compiling: " + (task.isChunked() ? task.modules : task.sources) + " with " + task.compilationLevel);
+		manifestFile.delete();
+		boolean compiled = closureCompiler.shouldRunCompiler() && closureCompiler.myRun();
+		List<Diagnostics.Diagnostic> compileDiagnostics = closureCompiler.getDiagnostics();
+		diagnostics.addAll(task, compileDiagnostics);
+		if (!compiled) {
+			int errors = 0;
+			for (Diagnostics.Diagnostic diagnostic : compileDiagnostics) {
+				if (diagnostic.severity.equals(Diagnostics.ERROR)) {
+					errors++;
+				}
+			}
+			throw new MojoFailureException(errors > 0
+					? "Closure Compiler reported " + errors + " error(s) in " + task.getDisplayName()
+					: "Closure Compiler failed to compile " + task.getDisplayName());
+		}
+		saveManifest(task, current, manifestFile);
+		// Watch rebuilds are not stored, every edit would add an entry that is never used again
+		if (cacheKey != null && !compilerWorkers.containsKey(task)) {
+			try {
+				buildCache.store(cacheKey, outputFiles);
+			} catch (IOException ex) {
+				getLog().warn("Unable to store the outputs of " + task.getDisplayName() + " in the build cache: " + ex.getMessage());
+			}
+		}
+		metrics.addOutputBytes(totalLength(outputFiles));
+		publishOutputs(task, outputFiles);
+	}
+
+	private void saveManifest(ClosureCompilerTask task, InputManifest manifest, File manifestFile) {
+		if (!task.incremental) {
+			return;
+		}
+		try {
+			manifest.save(manifestFile);
+		} catch (IOException ex) {
+			getLog().warn("Failed to write closure compiler manifest " + manifestFile, ex);
 		}
 	}
 
+	private static boolean allExist(List<File> files) {
+		for (File file : files) {
+			if (!file.exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long totalLength(List<File> files) {
+		long length = 0;
+		for (File file : files) {
+			length += file.length();
+		}
+		return length;
+	}
+
+	/**
+	 * Adds the javascript files below file, or file itself, to paths
+	 *
+	 * @deprecated use a {@link SourceScanner}, which also applies include and exclude patterns
+	 */
+	@Deprecated
 	public void findJavascriptFilesRecursively(File file, Collection<String> paths) {
-		if (file.isDirectory()) {
-			for (File f : file.listFiles()) {
-				findJavascriptFilesRecursively(f, paths);
+		try {
+			paths.addAll(new SourceScanner().scan(file));
+		} catch (IOException ex) {
+			throw new IllegalStateException("Unable to scan " + file, ex);
+		}
+	}
+
+	public ClosureCompilerRunner buildClosureCompilerRunner(ClosureCompilerTask task) throws MojoExecutionException {
+		ClosureCompilerWorker worker = compilerWorkers.get(task);
+		String[] args = worker != null ? worker.getArguments() : null;
+		if (args == null) {
+			args = buildClosureCompilerArguments(task);
+			if (worker != null) {
+				worker.setArguments(args);
 			}
-		} else {
-			if (!file.getName().startsWith(".") && file.getName().endsWith(".js")) {
-				paths.add(file.getAbsolutePath());
+		}
+		ClosureCompilerRunner runner = new ClosureCompilerRunner(args, task.outputFile);
+		runner.worker = worker;
+		if (forkCompiler) {
+			runner.compilerPool = SharedRuntime.getCompilerPool(getCompilerJvmArgs(), compilerForks);
+		}
+		if (task.hasSourceMap()) {
+			runner.inlineSourceMaps = task.isSourceMapInline();
+			runner.sourceMapLocationMappings = getSourceMapLocationMappings(task);
+		}
+		return runner;
+	}
+
+	/**
+	 * Maps each source directory to its path relative to the source maps, so the maps don't hold
+	 * absolute paths from the build machine
+	 */
+	private static Map<String, String> getSourceMapLocationMappings(ClosureCompilerTask task) {
+		File mapDirectory = task.isChunked() ? task.outputDirectory : task.outputFile.getAbsoluteFile().getParentFile();
+		Path mapPath = mapDirectory.toPath().toAbsolutePath().normalize();
+		List<String> prefixes = new ArrayList<>();
+		Map<String, String> replacements = new HashMap<>();
+		for (File source : task.getAllSources()) {
+			Path root = source.toPath().toAbsolutePath();
+			if (!Files.isDirectory(root)) {
+				root = root.getParent();
+			}
+			String prefix = root.toString() + File.separator;
+			if (!replacements.containsKey(prefix)) {
+				String relative = mapPath.relativize(root.normalize()).toString().replace(File.separatorChar, '/');
+				prefixes.add(prefix);
+				replacements.put(prefix, relative.isEmpty() ? "" : relative + "/");
+			}
+		}
+		// closure uses the first matching prefix, so nested directories must come first
+		Collections.sort(prefixes, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return b.length() - a.length();
 			}
+		});
+		Map<String, String> mappings = new LinkedHashMap<>();
+		for (String prefix : prefixes) {
+			mappings.put(prefix, replacements.get(prefix));
 		}
+		return mappings;
 	}
 
-	public ClosureCompilerRunner buildClosureCompilerRunner(ClosureCompilerTask task) {
-		Set<String> paths;
+	public String[] buildClosureCompilerArguments(ClosureCompilerTask task) throws MojoExecutionException {
 		List<String> args = new ArrayList<>();
+		SourceScanner scanner = new SourceScanner(task.includes, task.excludes, true);
 
-		paths = new HashSet<>();
-		for (File source : task.sources) {
-			findJavascriptFilesRecursively(source, paths);
-		}
-		for (String path : paths) {
-			args.add("--js");
-			args.add(path);
-		}
+		if (task.isChunked()) {
+			addModuleArguments(task, scanner, args);
+		} else {
+			for (String path : scan(scanner, task.sources)) {
+				args.add("--js");
+				args.add(path);
+			}
 
-		args.add("--js_output_file");
-		args.add(task.outputFile.getAbsolutePath());
+			args.add("--js_output_file");
+			args.add(task.outputFile.getAbsolutePath());
+		}
 
 		if (task.externs != null) {
-			paths = new HashSet<>();
-			for (File extern : task.externs) {
-				findJavascriptFilesRecursively(extern, paths);
-			}
-			for (String path : paths) {
+			for (String path : scan(scanner, task.externs)) {
 				args.add("--externs");
 				args.add(path);
 			}
 		}
 
+		if (task.hasSourceMap()) {
+			if (!task.isSourceMapInline() && !task.sourceMap.equalsIgnoreCase("file")) {
+				throw new MojoExecutionException("Unknown sourceMap " + task.sourceMap + " for " + task.getDisplayName() + ", expected file or inline");
+			}
+			// %outname% is the path of each output, so every module gets its own map
+			args.add("--create_source_map");
+			args.add("%outname%.map");
+			args.add("--source_map_format");
+			args.add("V3");
+		}
+
 		if (task.compilationLevel != null) {
 			args.add("--compilation_level");
 			args.add(task.compilationLevel);
@@ -219,22 +776,329 @@ public abstract class NodeJsMojoBase extends AbstractMojo {
 			args.add(task.warningLevel);
 		}
 
-		return new ClosureCompilerRunner(args.toArray(new String[args.size()]), task.outputFile);
+		return args.toArray(new String[args.size()]);
+	}
+
+	/**
+	 * Adds the sources of each module followed by its --module flag, closure assigns the preceding
+	 * inputs to the module. Modules are written to outputDirectory by name.
+	 */
+	private static void addModuleArguments(ClosureCompilerTask task, SourceScanner scanner, List<String> args) throws MojoExecutionException {
+		if (task.outputDirectory == null) {
+			throw new MojoExecutionException("Task " + task.getDisplayName() + " has modules but no outputDirectory");
+		}
+		if (task.sources != null && !task.sources.isEmpty()) {
+			throw new MojoExecutionException("Task " + task.getDisplayName() + " has both modules and sources, list the sources in a module instead");
+		}
+		if (task.outputFile != null) {
+			throw new MojoExecutionException("Task " + task.getDisplayName() + " has both modules and an outputFile, modules are written to outputDirectory");
+		}
+		Set<String> declared = new HashSet<>();
+		for (ClosureModule module : task.modules) {
+			if (module.name == null || module.sources == null) {
+				throw new MojoExecutionException("Every module of " + task.getDisplayName() + " needs a name and sources");
+			}
+			List<String> paths = scan(scanner, module.sources);
+			if (paths.isEmpty()) {
+				throw new MojoExecutionException("Module " + module.name + " of " + task.getDisplayName() + " has no sources");
+			}
+			for (String path : paths) {
+				args.add("--js");
+				args.add(path);
+			}
+			StringBuilder spec = new StringBuilder(module.name).append(':').append(paths.size());
+			if (module.dependsOn != null && !module.dependsOn.isEmpty()) {
+				for (String dependency : module.dependsOn) {
+					if (!declared.contains(dependency)) {
+						throw new MojoExecutionException("Module " + module.name + " depends on " + dependency + ", which must be listed before it");
+					}
+				}
+				spec.append(':').append(StringUtils.join(module.dependsOn.iterator(), ","));
+			}
+			args.add("--module");
+			args.add(spec.toString());
+			declared.add(module.name);
+		}
+		args.add("--module_output_path_prefix");
+		args.add(task.outputDirectory.getAbsolutePath() + File.separator);
+	}
+
+	private static List<String> scan(SourceScanner scanner, List<File> roots) throws MojoExecutionException {
+		try {
+			return scanner.scan(roots);
+		} catch (IOException ex) {
+			throw new MojoExecutionException("Unable to scan " + roots + " for javascript files", ex);
+		}
+	}
+
+	/**
+	 * Keeps a ClosureCompilerWorker for the task so later compiles reuse its in memory state
+	 */
+	protected ClosureCompilerWorker keepCompilerWorker(ClosureCompilerTask task) {
+		synchronized (compilerWorkers) {
+			ClosureCompilerWorker worker = compilerWorkers.get(task);
+			if (worker == null) {
+				worker = new ClosureCompilerWorker();
+				compilerWorkers.put(task, worker);
+			}
+			return worker;
+		}
 	}
 
 	public class ClosureCompilerRunner extends CommandLineRunner {
 		private File outputFile;
+		private String[] args;
+		private ClosureCompilerWorker worker;
+		private final List<AtomicOutputFile> outputs = new ArrayList<>();
+		private boolean inlineSourceMaps;
+		private Map<String, String> sourceMapLocationMappings;
+		private ClosureCompilerPool compilerPool;
+		private List<Diagnostics.Diagnostic> diagnostics = Collections.emptyList();
 		public ClosureCompilerRunner(String[] args, File outputFile) {
 			super(args);
 			getLog().debug(Arrays.asList(args).toString());
 			this.outputFile = outputFile;
+			this.args = args;
+		}
+
+		public String[] getArguments() {
+			return args;
+		}
+
+		/**
+		 * @return the errors and warnings of the last compile
+		 */
+		public List<Diagnostics.Diagnostic> getDiagnostics() {
+			return diagnostics;
+		}
+
+		@Override
+		protected List<SourceFile> createExterns() throws IOException {
+			if (worker == null) {
+				return superCreateExterns();
+			}
+			return worker.getExterns(new Callable<List<SourceFile>>() {
+				@Override
+				public List<SourceFile> call() throws Exception {
+					return superCreateExterns();
+				}
+			});
+		}
+
+		private List<SourceFile> superCreateExterns() throws IOException {
+			return SharedRuntime.createExterns(args);
+		}
+
+		@Override
+		protected List<SourceFile> createInputs(List<String> files, boolean allowStdIn) throws IOException {
+			if (worker == null || files.contains("-")) {
+				try {
+					return super.createInputs(files, allowStdIn);
+				} catch (IOException | RuntimeException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					throw new IOException(ex.getMessage(), ex);
+				}
+			}
+			List<SourceFile> inputs = new ArrayList<>(files.size());
+			for (String file : files) {
+				inputs.add(worker.getSource(file));
+			}
+			return inputs;
 		}
 
-		public void myRun() {
+		@Override
+		protected CompilerOptions createOptions() {
+			CompilerOptions options = super.createOptions();
+			if (sourceMapLocationMappings != null) {
+				options.setSourceMapLocationMappings(ClosureCompilerProcess.toLocationMappings(sourceMapLocationMappings));
+			}
+			return options;
+		}
+
+		/**
+		 * Compiler output is collected in memory and only written once the compile has succeeded
+		 */
+		@Override
+		protected OutputStream filenameToOutputStream(String fileName) throws IOException {
+			if (fileName == null) {
+				return null;
+			}
+			AtomicOutputFile output = new AtomicOutputFile(new File(fileName));
+			outputs.add(output);
+			return output;
+		}
+
+		/**
+		 * @return true if the compiler ran without errors. Errors of this JVM itself, such as running
+		 * out of memory, are thrown once the outputs have been dropped.
+		 * @throws MojoExecutionException when a forked compiler ran out of memory
+		 */
+		public boolean myRun() throws MojoExecutionException {
+			boolean success = false;
 			try {
-				doRun();
-			} catch (Exception e) {
+				if (compilerPool != null) {
+					success = runForked();
+				} else {
+					try {
+						success = doRun() == 0;
+					} finally {
+						diagnostics = ClosureCompilerProcess.getDiagnostics(getCompiler());
+					}
+				}
+			} catch (MojoExecutionException ex) {
+				finishOutputs(false);
+				throw ex;
 			} catch (Throwable t) {
+				VirtualMachineError error = ClosureCompilerProcess.getVirtualMachineError(t);
+				if (error != null) {
+					finishOutputs(false);
+					throw error;
+				}
+				getLog().error("Closure Compiler failed", t);
+			}
+			return finishOutputs(success) && success;
+		}
+
+		/**
+		 * Compiles in a worker JVM of the compiler pool and collects its outputs as if they had
+		 * been written here
+		 */
+		private boolean runForked() throws IOException, InterruptedException, MojoExecutionException {
+			ClosureCompilerPool.Result result = compilerPool.compile(args,
+					sourceMapLocationMappings != null ? sourceMapLocationMappings : Collections.<String, String>emptyMap());
+			logMessages(result.messages, result.status != ClosureCompilerProcess.OK);
+			diagnostics = result.diagnostics;
+			if (result.status == ClosureCompilerProcess.OUT_OF_MEMORY) {
+				// the worker's heap is exhausted, not Maven's, so this is a configuration error
+				throw new MojoExecutionException("The forked Closure Compiler ran out of memory, raise its -Xmx in compilerJvmArgs"
+						+ " (-Dnodejs.closure.jvmArgs, currently \"" + compilerJvmArgs + "\")");
+			}
+			for (Map.Entry<String, byte[]> output : result.outputs.entrySet()) {
+				try (OutputStream out = filenameToOutputStream(output.getKey())) {
+					out.write(output.getValue());
+				}
+			}
+			return result.status == ClosureCompilerProcess.OK;
+		}
+
+		/**
+		 * Logs what a forked compiler printed, its warnings and errors are in the diagnostics as well
+		 */
+		private void logMessages(String messages, boolean failed) {
+			for (String line : messages.split("\\r?\\n")) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				if (failed) {
+					getLog().error(line);
+				} else {
+					getLog().warn(line);
+				}
+			}
+		}
+
+		/**
+		 * Replaces the outputs whose content changed, or drops them all when the compile failed.
+		 * The outputs of a chunked compile are written in parallel.
+		 */
+		private boolean finishOutputs(boolean compiled) {
+			boolean written = true;
+			if (compiled && sourceMapLocationMappings != null) {
+				try {
+					linkSourceMaps();
+				} catch (IOException ex) {
+					getLog().error("Failed to add source maps to the Closure Compiler output", ex);
+					compiled = false;
+					written = false;
+				}
+			}
+			final boolean success = compiled;
+			List<Callable<Boolean>> writes = new ArrayList<>();
+			for (final AtomicOutputFile output : outputs) {
+				writes.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return finishOutput(output, success);
+					}
+				});
+			}
+			if (writes.size() == 1) {
+				written &= finishOutput(outputs.get(0), success);
+			} else if (writes.size() > 1) {
+				ExecutorService executor = Executors.newFixedThreadPool(Math.min(writes.size(), getThreadCount()));
+				try {
+					for (Future<Boolean> write : executor.invokeAll(writes)) {
+						written &= write.get();
+					}
+				} catch (InterruptedException | ExecutionException ex) {
+					getLog().error("Failed to write the Closure Compiler outputs", ex);
+					written = false;
+				} finally {
+					executor.shutdownNow();
+				}
+			}
+			outputs.clear();
+			return written;
+		}
+
+		/**
+		 * Points each output at its source map, or embeds the map in it
+		 */
+		private void linkSourceMaps() throws IOException {
+			Map<String, AtomicOutputFile> byPath = new HashMap<>();
+			for (AtomicOutputFile output : outputs) {
+				byPath.put(output.getFile().getPath(), output);
+			}
+			ListIterator<AtomicOutputFile> iterator = outputs.listIterator();
+			while (iterator.hasNext()) {
+				AtomicOutputFile map = iterator.next();
+				String path = map.getFile().getPath();
+				AtomicOutputFile output = path.endsWith(".map") ? byPath.get(path.substring(0, path.length() - 4)) : null;
+				if (output == null) {
+					continue;
+				}
+				map = relativizeSourceMap(map, output);
+				iterator.set(map);
+				String url;
+				if (inlineSourceMaps) {
+					url = "data:application/json;charset=utf-8;base64," + new String(Base64.encodeBase64(map.toByteArray()), "US-ASCII");
+					map.discard();
+					iterator.remove();
+				} else {
+					url = map.getFile().getName();
+				}
+				output.write(("\n//# sourceMappingURL=" + url + "\n").getBytes("UTF-8"));
+			}
+		}
+
+		/**
+		 * Closure records the output path as given on the command line in the "file" field of the
+		 * map. Using the output's name instead keeps the map the same wherever the project is built.
+		 */
+		private AtomicOutputFile relativizeSourceMap(AtomicOutputFile map, AtomicOutputFile output) throws IOException {
+			String content = new String(map.toByteArray(), "UTF-8");
+			String absolute = "\"file\":" + Json.quote(output.getFile().getPath());
+			if (!content.contains(absolute)) {
+				return map;
+			}
+			AtomicOutputFile relative = new AtomicOutputFile(map.getFile());
+			relative.write(content.replace(absolute, "\"file\":" + Json.quote(output.getFile().getName())).getBytes("UTF-8"));
+			map.discard();
+			return relative;
+		}
+
+		private boolean finishOutput(AtomicOutputFile output, boolean success) {
+			try {
+				if (!success) {
+					output.discard();
+				} else if (!output.commit()) {
+					getLog().info("Closure Compiler output " + output.getFile() + " is unchanged");
+				}
+				return true;
+			} catch (IOException ex) {
+				getLog().error("Failed to write " + output.getFile(), ex);
+				return false;
 			}
 		}
 	}
@@ -248,29 +1112,118 @@ public abstract class NodeJsMojoBase extends AbstractMojo {
 	 */
 	protected void executeCommandLine(Commandline commandLine)
 			throws CommandLineException, MojoExecutionException {
+		executeCommandLine(commandLine, null, null);
+	}
+
+	/**
+	 * Executes the given commandline, streaming its output to the log as it is produced
+	 *
+	 * @param commandLine
+	 * @param task    the task the command runs for, used to tag its output
+	 * @param logFile optional file that receives a copy of the output
+	 * @throws CommandLineException
+	 */
+	protected void executeCommandLine(Commandline commandLine, Task task, File logFile)
+			throws CommandLineException, MojoExecutionException {
 		getLog().info("Executing command: " + commandLine.toString());
-		CommandLineUtils.StringStreamConsumer systemErr = new CommandLineUtils.StringStreamConsumer();
-		CommandLineUtils.StringStreamConsumer systemOut = new CommandLineUtils.StringStreamConsumer();
+		TaskOutput output = openTaskOutput(task, logFile);
+		int exitCode;
+		try {
+			long spawnStart = System.nanoTime();
+			CommandLineCallable process = CommandLineUtils.executeCommandLineAsCallable(commandLine, null, output.getSystemOut(), output.getSystemErr(), 0);
+			BuildMetrics.current().addSpawnNanos(System.nanoTime() - spawnStart);
+			exitCode = process.call();
+		} finally {
+			output.close();
+		}
+		if (exitCode != 0) {
+			throw new MojoExecutionException("Result of " + commandLine + " execution is: '" + exitCode + "'.");
+		}
+	}
 
-		int exitCode = CommandLineUtils.executeCommandLine(commandLine, systemOut, systemErr);
-		String output = systemOut.getOutput().trim();
-		if (!StringUtils.isEmpty(output)) {
-			getLog().info("");
-			for (String line : output.split("\n")) {
-				getLog().info(line);
+	private TaskOutput openTaskOutput(Task task, File logFile) throws MojoExecutionException {
+		try {
+			return new TaskOutput(getLog(), task, logFile, diagnostics);
+		} catch (IOException ex) {
+			throw new MojoExecutionException("Unable to open log file " + logFile, ex);
+		}
+	}
+
+	/**
+	 * Runs a NodeJsTask in the node daemon for its working directory
+	 */
+	protected void executeInDaemon(NodeJsTask task, NodeInstallInformation information) throws CommandLineException, MojoExecutionException {
+		NodeJsDaemon nodeDaemon;
+		long spawnStart = System.nanoTime();
+		try {
+			nodeDaemon = getDaemon(task.workingDirectory, information);
+		} catch (NodeJsDaemon.UnsupportedException ex) {
+			getLog().warn(ex.getMessage() + ", running NodeJsTasks in their own process");
+			daemonUnsupported = true;
+			executeCommandLine(getCommandLine(task.workingDirectory, information.executable.getAbsolutePath(), task.name, task.arguments), task, task.logFile);
+			return;
+		} catch (IOException ex) {
+			throw new MojoExecutionException("Node daemon failed to run " + task.name, ex);
+		}
+		BuildMetrics.current().addSpawnNanos(System.nanoTime() - spawnStart);
+
+		int exitCode;
+		TaskOutput output = openTaskOutput(task, task.logFile);
+		try {
+			getLog().info("Executing in node daemon: " + task.name + (task.arguments != null ? " " + StringUtils.join(task.arguments, " ") : ""));
+			exitCode = nodeDaemon.execute(task.name, task.arguments, output.getSystemOut(), output.getSystemErr(), daemonTimeout * 1000L);
+		} catch (IOException ex) {
+			throw new MojoExecutionException("Node daemon failed to run " + task.name, ex);
+		} finally {
+			output.close();
+		}
+		if (exitCode != 0) {
+			throw new MojoExecutionException("Result of " + task.name + " execution is: '" + exitCode + "'.");
+		}
+	}
+
+	protected NodeJsDaemon getDaemon(File workingDirectory, NodeInstallInformation information) throws CommandLineException, IOException {
+		File directory = (workingDirectory != null ? workingDirectory : new File("")).getAbsoluteFile();
+		synchronized (daemons) {
+			NodeJsDaemon nodeDaemon = daemons.get(directory);
+			if (nodeDaemon == null || !nodeDaemon.isAlive()) {
+				File script = NodeJsDaemon.installScript(nodeJsDirectory);
+				getLog().info("Starting node daemon in " + directory);
+				Commandline commandLine = getCommandLine(directory, information.executable.getAbsolutePath(), script.getAbsolutePath());
+				nodeDaemon = new NodeJsDaemon(commandLine, new StreamConsumer() {
+					@Override
+					public void consumeLine(String line) {
+						getLog().error(line);
+					}
+				});
+				daemons.put(directory, nodeDaemon);
 			}
-			getLog().info("");
+			return nodeDaemon;
 		}
-		output = systemErr.getOutput().trim();
-		if (!StringUtils.isEmpty(output)) {
-			getLog().error("");
-			for (String line : output.split("\n")) {
-				getLog().error(line);
+	}
+
+	/**
+	 * Kills every node daemon started by this mojo, failing the tasks they are running. Daemons are
+	 * started again when next needed.
+	 */
+	protected void destroyDaemons() {
+		synchronized (daemons) {
+			for (NodeJsDaemon nodeDaemon : daemons.values()) {
+				nodeDaemon.destroy();
 			}
-			getLog().error("");
+			daemons.clear();
 		}
-		if (exitCode != 0) {
-			throw new MojoExecutionException("Result of " + commandLine + " execution is: '" + exitCode + "'.");
+	}
+
+	/**
+	 * Stops every node daemon started by this mojo
+	 */
+	public void stopDaemons() {
+		synchronized (daemons) {
+			for (NodeJsDaemon nodeDaemon : daemons.values()) {
+				nodeDaemon.close();
+			}
+			daemons.clear();
 		}
 	}
 
@@ -295,7 +1248,14 @@ public abstract class NodeJsMojoBase extends AbstractMojo {
 			commandLine.setWorkingDirectory(workDir);
 		}
 
-		commandLine.setExecutable(executable);
+		// The shell replaces itself with the executable, so destroying the process stops it
+		// instead of leaving it running without its shell
+		if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+			commandLine.setExecutable(executable);
+		} else {
+			commandLine.setExecutable("exec");
+			commandLine.createArg().setValue(executable);
+		}
 		if (moduleName != null) {
 			Arg arg = commandLine.createArg();
 			arg.setValue(moduleName);
@@ -310,16 +1270,186 @@ public abstract class NodeJsMojoBase extends AbstractMojo {
 		return commandLine;
 	}
 
-	protected void executeTask(Task task, NodeInstallInformation information) throws CommandLineException, MojoExecutionException {
+	protected void executeTask(Task task, NodeInstallInformation information) throws CommandLineException, MojoExecutionException, MojoFailureException {
 		if (task instanceof NodeJsTask) {
-			NodeJsTask nodeJsTask = (NodeJsTask) task;
-			Commandline commandLine = getCommandLine(nodeJsTask.workingDirectory, information.executable.getAbsolutePath(), nodeJsTask.name, nodeJsTask.arguments);
-			executeCommandLine(commandLine);
+			executeNodeJsTask((NodeJsTask) task, information);
 		} else if (task instanceof ClosureCompilerTask) {
 			ClosureCompilerTask closureCompilerTask = (ClosureCompilerTask) task;
 			executeClosureCompiler(closureCompilerTask);
+		} else if (task instanceof NpmInstallTask) {
+			executeNpmInstall((NpmInstallTask) task, information);
 		} else {
 			throw new MojoExecutionException("Unknown task type");
 		}
 	}
+
+	protected void executeNodeJsTask(NodeJsTask task, NodeInstallInformation information) throws CommandLineException, MojoExecutionException {
+		BuildMetrics.TaskMetrics metrics = BuildMetrics.current();
+		String cacheKey = null;
+		BuildCache buildCache = null;
+		if (useBuildCache && task.isCacheable()) {
+			buildCache = getBuildCache();
+			metrics.addInputBytes(sizeOf(task.inputs));
+			try {
+				cacheKey = getBuildCacheKey(task);
+			} catch (IOException ex) {
+				getLog().warn("Unable to use the build cache for " + task.getDisplayName() + ": " + ex.getMessage());
+			}
+		}
+		if (cacheKey != null) {
+			try {
+				if (buildCache.restore(cacheKey, task.outputs)) {
+					getLog().info("Restored outputs of " + task.getDisplayName() + " from the build cache");
+					metrics.setStatus("cached");
+					metrics.addOutputBytes(sizeOf(task.outputs));
+					return;
+				}
+			} catch (IOException ex) {
+				getLog().warn("Discarded the unusable build cache entry of " + task.getDisplayName() + ": " + ex.getMessage());
+			}
+		}
+
+		if (daemon && !daemonUnsupported) {
+			executeInDaemon(task, information);
+		} else {
+			Commandline commandLine = getCommandLine(task.workingDirectory, information.executable.getAbsolutePath(), task.name, task.arguments);
+			executeCommandLine(commandLine, task, task.logFile);
+		}
+
+		if (task.outputs != null) {
+			metrics.addOutputBytes(sizeOf(task.outputs));
+		}
+		if (cacheKey != null) {
+			try {
+				buildCache.store(cacheKey, task.outputs);
+			} catch (IOException ex) {
+				getLog().warn("Unable to store the outputs of " + task.getDisplayName() + " in the build cache: " + ex.getMessage());
+			}
+		}
+	}
+
+	private static long sizeOf(List<File> files) {
+		long size = 0;
+		try {
+			for (File root : files) {
+				for (File file : BuildCache.listFiles(root)) {
+					size += file.length();
+				}
+			}
+		} catch (IOException ex) {
+			// sizes are only reported
+		}
+		return size;
+	}
+
+	/**
+	 * Installs the dependencies of the task's working directory. node_modules is left alone when it
+	 * was installed from the same package files, restored from the node_modules cache when they
+	 * were installed before, and installed with npm otherwise, adding the result to the cache.
+	 */
+	protected void executeNpmInstall(NpmInstallTask task, NodeInstallInformation information) throws CommandLineException, MojoExecutionException {
+		BuildMetrics.TaskMetrics metrics = BuildMetrics.current();
+		if (task.workingDirectory == null || !new File(task.workingDirectory, "package.json").isFile()) {
+			throw new MojoExecutionException("No package.json in the working directory of " + task.getDisplayName() + ": " + task.workingDirectory);
+		}
+		File nodeModules = task.getNodeModules();
+		NodeModulesCache cache = new NodeModulesCache(nodeModulesCacheDirectory);
+		String key;
+		try {
+			key = getNodeModulesKey(task);
+			if (NodeModulesCache.isCurrent(nodeModules, key)) {
+				getLog().info("Dependencies of " + task.getDisplayName() + " are up to date");
+				metrics.setStatus("up-to-date");
+				return;
+			}
+			if (useBuildCache && cache.restore(key, nodeModules, task.linkFromCache)) {
+				getLog().info("Restored node_modules of " + task.getDisplayName() + " from the node_modules cache");
+				metrics.setStatus("cached");
+				return;
+			}
+			NodeModulesCache.clearMarker(nodeModules);
+		} catch (IOException ex) {
+			throw new MojoExecutionException("Unable to restore node_modules of " + task.getDisplayName(), ex);
+		}
+
+		List<String> arguments = new ArrayList<>();
+		arguments.add(task.command);
+		if (task.arguments != null) {
+			arguments.addAll(Arrays.asList(task.arguments));
+		}
+		Commandline commandLine = getCommandLine(task.workingDirectory, information.executable.getAbsolutePath(),
+				getNpmCli(information).getAbsolutePath(), arguments.toArray(new String[arguments.size()]));
+		executeCommandLine(commandLine, task, task.logFile);
+
+		try {
+			if (!nodeModules.isDirectory()) {
+				Files.createDirectories(nodeModules.toPath());
+			}
+			// npm may have written the lockfile, which the next build's key includes
+			String installedKey = getNodeModulesKey(task);
+			if (useBuildCache) {
+				cache.store(key, nodeModules);
+				if (!installedKey.equals(key)) {
+					cache.store(installedKey, nodeModules);
+				}
+			}
+			NodeModulesCache.markCurrent(nodeModules, installedKey);
+		} catch (IOException ex) {
+			getLog().warn("Unable to store node_modules of " + task.getDisplayName() + " in the node_modules cache: " + ex.getMessage());
+		}
+	}
+
+	private File getNpmCli(NodeInstallInformation information) throws MojoExecutionException {
+		File cli = npmCli;
+		if (cli == null) {
+			File home = information.executable.getAbsoluteFile().getParentFile();
+			if (home.getName().equals("bin")) {
+				home = home.getParentFile();
+			}
+			cli = new File(home, "lib" + File.separator + "node_modules" + File.separator + "npm" + File.separator + "bin" + File.separator + "npm-cli.js");
+		}
+		if (!cli.isFile()) {
+			throw new MojoExecutionException("npm was not found at " + cli + ", set npmCli to the npm-cli.js to use");
+		}
+		return cli;
+	}
+
+	/**
+	 * The key covers the package files, the npm command and the node version and platform, since
+	 * packages with native code are built for them
+	 */
+	protected String getNodeModulesKey(NpmInstallTask task) throws IOException {
+		BuildCache.KeyBuilder key = new BuildCache.KeyBuilder();
+		key.add("npmInstallTask").add(nodeJsVersion).add(System.getProperty("os.name")).add(System.getProperty("os.arch"));
+		key.add(task.command).add(task.arguments != null ? Arrays.asList(task.arguments).toString() : null);
+		for (File file : task.getPackageFiles()) {
+			key.addFiles(task.workingDirectory, file);
+		}
+		return key.build();
+	}
+
+	/**
+	 * Hashes the task's script and its content, arguments, input files and the node version
+	 */
+	protected String getBuildCacheKey(NodeJsTask task) throws IOException {
+		BuildCache.KeyBuilder key = new BuildCache.KeyBuilder();
+		key.add("nodeJsTask").add(nodeJsVersion).add(task.name);
+		if (task.name != null) {
+			File script = new File(task.name);
+			if (!script.isAbsolute()) {
+				script = new File(task.workingDirectory, task.name);
+			}
+			if (script.isFile()) {
+				key.add(Digests.sha256(script));
+			}
+		}
+		key.add(task.arguments != null ? Arrays.asList(task.arguments).toString() : null);
+		for (File output : task.outputs) {
+			key.addPath(task.workingDirectory, output);
+		}
+		for (File input : task.inputs) {
+			key.addFiles(task.workingDirectory, input);
+		}
+		return key.build();
+	}
 }
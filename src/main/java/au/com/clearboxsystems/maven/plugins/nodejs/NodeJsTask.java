@@ -18,6 +18,7 @@ package au.com.clearboxsystems.maven.plugins.nodejs;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * Author: Paul Solomon
@@ -32,4 +33,32 @@ public class NodeJsTask extends Task {
 
 	@Parameter
 	public String[] arguments;
+
+	/**
+	 * Optional file that receives a copy of everything the task prints
+	 */
+	@Parameter
+	public File logFile;
+
+	/**
+	 * Files and directories the task reads. Together with outputs this lets the plugin restore the
+	 * task's outputs from the build cache instead of running it.
+	 */
+	@Parameter
+	public List<File> inputs;
+
+	/**
+	 * Files and directories the task writes
+	 */
+	@Parameter
+	public List<File> outputs;
+
+	public boolean isCacheable() {
+		return inputs != null && !inputs.isEmpty() && outputs != null && !outputs.isEmpty();
+	}
+
+	@Override
+	public String getDisplayName() {
+		return id != null || name == null ? super.getDisplayName() : name;
+	}
 }
@@ -16,19 +16,24 @@ package au.com.clearboxsystems.maven.plugins.nodejs;
  */
 
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
-import org.apache.tools.ant.taskdefs.Parallel;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.cli.CommandLineException;
 
 import java.io.IOException;
 import java.io.File;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Author: Paul Solomon
@@ -37,11 +42,50 @@ import java.util.Map;
 @Mojo( name = "watch", defaultPhase = LifecyclePhase.PROCESS_SOURCES)
 public class NodeJsWatcherMojo extends NodeJsMojoBase {
 
-	private static final WatchEvent.Kind<?>[] watchEvents = {StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE};
-	private WatchService watchService;
-	private Map<Path, Task> watchTasks = new HashMap<>();
+	private SourceWatcher sourceWatcher;
 
-	private boolean changed = true;
+	private LiveReloadServer liveReload;
+
+	private final Map<Task, Set<File>> pendingChanges = new LinkedHashMap<>();
+
+	private boolean rebuildScheduled;
+
+	private volatile Exception rebuildFailure;
+
+	/**
+	 * Milliseconds without any file change before the affected tasks are rebuilt
+	 */
+	@Parameter(property = "nodejs.watch.quietPeriod", defaultValue = "200")
+	protected long quietPeriod;
+
+	/**
+	 * Poll the watched trees for changes instead of using the operating system's file change
+	 * notifications, for file systems that don't deliver them. Trees are also polled when the
+	 * system runs out of watches.
+	 */
+	@Parameter(property = "nodejs.watch.poll", defaultValue = "false")
+	protected boolean poll;
+
+	/**
+	 * Milliseconds between polls of trees that are not watched
+	 */
+	@Parameter(property = "nodejs.watch.pollInterval", defaultValue = "1000")
+	protected long pollInterval;
+
+	/**
+	 * Port of a local endpoint that tells browsers which outputs each rebuild changed, 0 to
+	 * disable it. Pages that include {@code http://localhost:<port>/livereload.js} reload
+	 * changed stylesheets in place and reload themselves when one of their scripts changed.
+	 */
+	@Parameter(property = "nodejs.watch.liveReloadPort", defaultValue = "0")
+	protected int liveReloadPort;
+
+	/**
+	 * Origin, such as {@code http://dev.example.com:8080}, of pages other than those served from
+	 * localhost that may listen to the live reload events
+	 */
+	@Parameter(property = "nodejs.watch.liveReloadOrigin")
+	protected String liveReloadOrigin;
 
 	private final NodeJsMojoBase.TaskFilter filter = new NodeJsMojoBase.TaskFilter() {
 			public boolean accept(Task t) {
@@ -51,6 +95,22 @@ public class NodeJsWatcherMojo extends NodeJsMojoBase {
 
 	@Override
 	public void execute() throws MojoExecutionException {
+		try {
+			runAndWatch();
+		} finally {
+			stopDaemons();
+		}
+	}
+
+	private void runAndWatch() throws MojoExecutionException {
+		if (tasks != null) {
+			for (Task task : tasks) {
+				if (task.watch && task instanceof ClosureCompilerTask) {
+					keepCompilerWorker((ClosureCompilerTask) task);
+				}
+			}
+		}
+
 		NodeJsMojoBase.NodeInstallInformation info = super.run(filter);
 
 		if (info == null) {
@@ -68,8 +128,17 @@ public class NodeJsWatcherMojo extends NodeJsMojoBase {
 		}
 
 
-		getLog().info("Starting watch vigil");
+		if (sourceWatcher == null) {
+			return;
+		}
+		getLog().info(String.format("Starting watch vigil on %d directories%s", sourceWatcher.getWatchedDirectoryCount(),
+				sourceWatcher.getPolledTreeCount() > 0 ? ", polling " + sourceWatcher.getPolledTreeCount() + " trees" : ""));
 		try {
+			if (liveReloadPort > 0) {
+				liveReload = new LiveReloadServer(getLog(), liveReloadOrigin);
+				liveReload.start(liveReloadPort);
+				getLog().info("Live reload script at http://localhost:" + liveReload.getPort() + "/livereload.js");
+			}
 			watch(info);
 		} catch (CommandLineException ex) {
 			throw new MojoExecutionException("Error during watch", ex);
@@ -77,142 +146,239 @@ public class NodeJsWatcherMojo extends NodeJsMojoBase {
 			throw new MojoExecutionException("Error during watch", ex);
 		} catch (IOException ex) {
 			throw new MojoExecutionException("Error during watch", ex);
+		} finally {
+			if (liveReload != null) {
+				liveReload.stop();
+				liveReload = null;
+			}
 		}
 	}
 
 
-	public void addWatchForTask(final Task task) throws IOException {
+	public void addWatchForTask(Task task) throws IOException {
+		if (sourceWatcher == null) {
+			sourceWatcher = new SourceWatcher(getLog(), pollInterval > 0 ? pollInterval : 1000, poll);
+		}
 		if (task instanceof NodeJsTask) {
 			NodeJsTask nodeJsTask = (NodeJsTask) task;
-			Path sourceDir = nodeJsTask.workingDirectory.toPath();
-			watchTasks.put(sourceDir, task);
-
-			if (watchService == null) {
-				watchService = sourceDir.getFileSystem().newWatchService();
+			SourceScanner filter = new SourceScanner(Arrays.asList("**"), SourceWatcher.DEFAULT_EXCLUDES, false);
+			List<File> outputs = nodeJsTask.outputs != null ? nodeJsTask.outputs : Collections.<File>emptyList();
+			sourceWatcher.watch(task, nodeJsTask.workingDirectory, filter, outputs);
+		} else if (task instanceof ClosureCompilerTask) {
+			ClosureCompilerTask closureCompilerTask = (ClosureCompilerTask) task;
+			List<String> excludes = new ArrayList<>(SourceWatcher.DEFAULT_EXCLUDES);
+			if (closureCompilerTask.excludes != null) {
+				excludes.addAll(closureCompilerTask.excludes);
+			}
+			SourceScanner filter = new SourceScanner(closureCompilerTask.includes, excludes, false);
+			for (File source : closureCompilerTask.getAllSources()) {
+				sourceWatcher.watch(task, source, filter, closureCompilerTask.getOutputFiles());
 			}
+		} else if (task instanceof NpmInstallTask) {
+			NpmInstallTask npmInstallTask = (NpmInstallTask) task;
+			SourceScanner filter = new SourceScanner(Arrays.asList(NpmInstallTask.PACKAGE_FILES), SourceWatcher.DEFAULT_EXCLUDES, false);
+			sourceWatcher.watch(task, npmInstallTask.workingDirectory, filter, Collections.<File>emptyList());
+		}
+	}
 
-			Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-					dir.register(watchService, watchEvents);
-					watchTasks.put(dir, task);
-					//getLog().info("Adding NodeJS watcher for: " + dir.toString());
-					return FileVisitResult.CONTINUE;
+	/**
+	 * Collects changes on the calling thread and rebuilds the affected tasks on a separate thread.
+	 * Changes made while a rebuild runs are gathered as they happen and rebuilt together as soon as
+	 * it is done, rather than queueing up behind it.
+	 */
+	public void watch(final NodeJsMojoBase.NodeInstallInformation info) throws IOException, InterruptedException, CommandLineException, MojoExecutionException {
+		final Thread intake = Thread.currentThread();
+		ExecutorService rebuilds = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "nodejs-watch-rebuild");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		getLog().info("Waiting for changes...");
+		try {
+			while (true) {
+				// Changes are gathered until nothing has changed for quietPeriod, so a burst of
+				// changes (a branch switch, "save all") results in a single rebuild of each task.
+				Map<Task, Set<File>> changes;
+				try {
+					changes = sourceWatcher.take(quietPeriod);
+				} catch (InterruptedException ex) {
+					rethrowRebuildFailure();
+					throw ex;
 				}
-			});
-		} else if (task instanceof ClosureCompilerTask) {
-			final ClosureCompilerTask closureCompilerTask = (ClosureCompilerTask) task;
-
-			if (watchService == null) {
-				watchService = FileSystems.getDefault().newWatchService();
-			}
-
-			for (File source : closureCompilerTask.sources) {
-				Path path = source.getParentFile().toPath();
-				path.register(watchService, watchEvents);
-				watchTasks.put(path, task);
-				Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-						@Override
-							public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-							dir.register(watchService, watchEvents);
-							watchTasks.put(dir, task);
-							//getLog().info("Adding Closure watcher for: " + closureCompilerTask.sources);
-							return FileVisitResult.CONTINUE;
+				synchronized (pendingChanges) {
+					for (Map.Entry<Task, Set<File>> entry : changes.entrySet()) {
+						Set<File> files = pendingChanges.get(entry.getKey());
+						if (files == null) {
+							pendingChanges.put(entry.getKey(), entry.getValue());
+						} else {
+							files.addAll(entry.getValue());
 						}
-					});
+					}
+					if (!rebuildScheduled) {
+						rebuildScheduled = true;
+						rebuilds.submit(new Runnable() {
+							@Override
+							public void run() {
+								rebuildPending(info, intake);
+							}
+						});
+					}
+				}
 			}
-		} else {
-			watchService = null;
+		} finally {
+			rebuilds.shutdownNow();
 		}
 	}
 
-	public void watch(NodeJsMojoBase.NodeInstallInformation info) throws IOException, InterruptedException, CommandLineException, MojoExecutionException {
-		while (true) {
-			if (changed) {
-				getLog().info("Waiting for changes...");
-				changed = false;
-			}
-
-			WatchKey watchKey = watchService.take();
-			Path dir = (Path) watchKey.watchable();
-
-			List<String> updatedFiles = new ArrayList<>();
-			for (WatchEvent<?> event : watchKey.pollEvents()) {
-				Path file = dir.resolve((Path) event.context());
-				String absolutePath = file.toFile().getAbsolutePath();
-				String filename = file.toFile().getName();
-				getLog().debug(String.format("watched %s - %s", event.kind().name(), file));
-
+	private void rethrowRebuildFailure() throws CommandLineException, MojoExecutionException {
+		Exception failure = rebuildFailure;
+		if (failure instanceof CommandLineException) {
+			throw (CommandLineException) failure;
+		}
+		if (failure instanceof MojoExecutionException) {
+			throw (MojoExecutionException) failure;
+		}
+	}
 
-				if (file.toString().endsWith("___jb_bak___") || file.toString().endsWith("___jb_old___")) { // Ignore tmp files from idea
-					continue;
+	/**
+	 * Rebuilds until no changes are pending. A failure that ends the watch is handed to the intake
+	 * thread, which is interrupted to rethrow it.
+	 */
+	private void rebuildPending(NodeJsMojoBase.NodeInstallInformation info, Thread intake) {
+		while (true) {
+			Map<Task, Set<File>> changes;
+			synchronized (pendingChanges) {
+				if (pendingChanges.isEmpty()) {
+					rebuildScheduled = false;
+					getLog().info("Waiting for changes...");
+					return;
 				}
+				changes = new LinkedHashMap<>(pendingChanges);
+				pendingChanges.clear();
+			}
+			try {
+				rebuild(changes, info);
+			} catch (CommandLineException | MojoExecutionException ex) {
+				rebuildFailure = ex;
+				intake.interrupt();
+				return;
+			} catch (RuntimeException ex) {
+				getLog().error("Rebuild failed", ex);
+			}
+		}
+	}
 
-				if (updatedFiles.contains(file.toString())) {
-					continue;
-				}
+	private void rebuild(Map<Task, Set<File>> changes, NodeJsMojoBase.NodeInstallInformation info) throws CommandLineException, MojoExecutionException {
+		List<Task> rebuild = new ArrayList<>();
+		for (Task task : tasks) {
+			Set<File> files = changes.get(task);
+			if (files == null) {
+				continue;
+			}
+			if (task instanceof ClosureCompilerTask) {
+				keepCompilerWorker((ClosureCompilerTask) task).invalidate(files);
+			}
+			getLog().info(String.format("%s MODIFIED rerunning Task %s", files.size() == 1 ? files.iterator().next() : files.size() + " files", task.getDisplayName()));
+			rebuild.add(task);
+		}
+		if (rebuild.isEmpty()) {
+			return;
+		}
+		Map<File, String> before = liveReload != null ? getOutputState(rebuild) : null;
 
-				if (filename.startsWith(".")) {
-					continue;
-				}
+		// Every task reading a changed file is rebuilt, independent ones at the same time
+		List<TaskScheduler.Failure> failures = runTasks(rebuild, info, new BuildMetrics());
+		reportDiagnostics();
+		for (TaskScheduler.Failure failure : failures) {
+			if (failure.cancelled) {
+				getLog().warn("Cancelled task " + failure.task.getDisplayName() + " after an earlier task failed");
+				continue;
+			}
+			if (failure.cause instanceof CommandLineException) {
+				throw (CommandLineException) failure.cause;
+			}
+			if (failure.cause instanceof MojoExecutionException) {
+				throw (MojoExecutionException) failure.cause;
+			}
+			// compile errors are fixed by the next edit, they don't end the watch
+			if (failure.cause instanceof MojoFailureException) {
+				getLog().error(failure.cause.getMessage());
+				continue;
+			}
+			getLog().error("Execution Exception in task " + failure.task, failure.cause);
+		}
+		writeAssetManifest();
 
-				if (filename.endsWith("~")) {
-					continue;
-				}
+		if (liveReload != null) {
+			announceChanges(rebuild, before, getOutputState(rebuild));
+		}
+	}
 
-				if (Files.isDirectory(file)) {
-					if (event.kind().name().equals(StandardWatchEventKinds.ENTRY_CREATE.name())) {
-						// watch created folder.
-						Task task = watchTasks.get(file.getParent());
-						if (task != null) {
-							file.register(watchService, watchEvents);
-							getLog().info(String.format("added watch for %s", file));
-							watchTasks.put(file, task);
-						}
-					}
-					continue;
-				}
+	/**
+	 * Tells live reload clients which outputs changed. When a rebuilt task doesn't declare its
+	 * outputs, no outputs are announced, which makes pages reload.
+	 */
+	private void announceChanges(List<Task> rebuilt, Map<File, String> before, Map<File, String> after) {
+		List<String> names = new ArrayList<>();
+		boolean undeclared = false;
+		for (Task task : rebuilt) {
+			names.add(task.getDisplayName());
+			undeclared |= getOutputs(task).isEmpty();
+		}
+		List<File> changed = new ArrayList<>();
+		for (Map.Entry<File, String> entry : after.entrySet()) {
+			if (!entry.getValue().equals(before.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		for (File file : before.keySet()) {
+			if (!after.containsKey(file)) {
+				changed.add(file);
+			}
+		}
+		if (undeclared) {
+			changed.clear();
+		} else if (changed.isEmpty()) {
+			return;
+		}
+		liveReload.announce(names, changed);
+	}
 
-				if (event.kind().name().equals(StandardWatchEventKinds.ENTRY_MODIFY.name()) || event.kind().name().equals(StandardWatchEventKinds.ENTRY_CREATE.name())) {
-					updatedFiles.add(file.toString());
-					Task task = watchTasks.get(file);
-					if (task == null) {
-						task = watchTasks.get(file.getParent());
-					}
-					if (task != null) {
-						if (task instanceof ClosureCompilerTask) {
-							ClosureCompilerTask closureCompilerTask = (ClosureCompilerTask) task;
-							if (!filename.endsWith(".js")) {
-								// bail out here, because if it's not a .js file then the compiler task won't compile it
-								continue;
-							}
-							/*boolean validFile = false;
-							for (File source : closureCompilerTask.sources) {
-								String path = source.getAbsolutePath(); 
-								if (source.isDirectory()) {
-									if (absolutePath.startsWith(filename)) {
-										validFile = true;
-									}
-								} else {
-									if (absolutePath.equals(path)) {
-										validFile = true;
-									}
-								}
-							}
-							if (!validFile) {
-								continue;
-								}*/
-						}
-						getLog().info(String.format("%s MODIFIED rerunning Task", file));
-						executeTask(task, info);
-						changed = true;
-					}
+	/**
+	 * @return the modification time and size of every output file of the tasks, and of the asset
+	 * manifest
+	 */
+	private Map<File, String> getOutputState(List<Task> rebuilt) {
+		Map<File, String> state = new LinkedHashMap<>();
+		List<File> outputs = new ArrayList<>();
+		for (Task task : rebuilt) {
+			outputs.addAll(getOutputs(task));
+		}
+		if (assetManifest != null) {
+			outputs.add(assetManifest);
+		}
+		for (File output : outputs) {
+			try {
+				for (File file : BuildCache.listFiles(output)) {
+					state.put(file, file.lastModified() + ":" + file.length());
 				}
-
+			} catch (IOException ex) {
+				getLog().debug("Unable to list outputs in " + output + ": " + ex.getMessage());
 			}
-			watchKey.reset();
 		}
+		return state;
 	}
 
-
+	private static List<File> getOutputs(Task task) {
+		if (task instanceof ClosureCompilerTask) {
+			return ((ClosureCompilerTask) task).getOutputFiles();
+		}
+		if (task instanceof NodeJsTask && ((NodeJsTask) task).outputs != null) {
+			return ((NodeJsTask) task).outputs;
+		}
+		return Collections.emptyList();
+	}
 }
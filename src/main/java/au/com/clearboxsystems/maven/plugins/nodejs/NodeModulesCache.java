@@ -0,0 +1,205 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.UUID;
+
+/**
+ * Installed node_modules trees kept by the key of what they were installed from. Entries are
+ * plain directories, so node_modules can be restored from them with hard links, and are added
+ * with an atomic rename so a build never sees a partial entry.
+ *
+ * A restored or installed node_modules holds a marker with its key, so a build whose key hasn't
+ * changed leaves node_modules alone.
+ */
+public class NodeModulesCache {
+	public static final String MARKER = ".nodejs-modules-key";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+
+	public NodeModulesCache(File directory) {
+		this.directory = directory;
+	}
+
+	public File getEntry(String key) {
+		return new File(directory, key);
+	}
+
+	/**
+	 * @return true if nodeModules was installed from key
+	 */
+	public static boolean isCurrent(File nodeModules, String key) throws IOException {
+		File marker = new File(nodeModules, MARKER);
+		return marker.isFile() && new String(Files.readAllBytes(marker.toPath()), UTF8).trim().equals(key);
+	}
+
+	public static void markCurrent(File nodeModules, String key) throws IOException {
+		Files.write(new File(nodeModules, MARKER).toPath(), key.getBytes(UTF8));
+	}
+
+	public static void clearMarker(File nodeModules) throws IOException {
+		Files.deleteIfExists(new File(nodeModules, MARKER).toPath());
+	}
+
+	/**
+	 * Replaces nodeModules with the entry stored under key
+	 *
+	 * @param link hard link the files instead of copying them, where the file system allows it
+	 * @return false if there is no entry for the key
+	 */
+	public boolean restore(String key, File nodeModules, boolean link) throws IOException {
+		File entry = getEntry(key);
+		if (!entry.isDirectory()) {
+			return false;
+		}
+		Path target = nodeModules.toPath().toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path staging = createStaging(target.getParent(), ".node_modules-");
+		try {
+			copyTree(entry.toPath(), staging, link);
+			markCurrent(staging.toFile(), key);
+			replace(staging, target);
+		} finally {
+			if (Files.exists(staging, LinkOption.NOFOLLOW_LINKS)) {
+				deleteTree(staging);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies nodeModules into the cache under key, unless another build stored it first
+	 */
+	public void store(String key, File nodeModules) throws IOException {
+		Path entry = getEntry(key).toPath();
+		if (Files.isDirectory(entry)) {
+			return;
+		}
+		Files.createDirectories(directory.toPath());
+		Path staging = createStaging(directory.toPath(), "." + key + "-");
+		try {
+			copyTree(nodeModules.toPath(), staging, false);
+			Files.deleteIfExists(staging.resolve(MARKER));
+			try {
+				Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException ex) {
+				// stored by another build in the meantime
+			} catch (IOException ex) {
+				if (!Files.isDirectory(entry)) {
+					throw ex;
+				}
+			}
+		} finally {
+			if (Files.exists(staging, LinkOption.NOFOLLOW_LINKS)) {
+				deleteTree(staging);
+			}
+		}
+	}
+
+	/**
+	 * Moves the staged tree into place, deleting what was there before
+	 */
+	private static void replace(Path staging, Path target) throws IOException {
+		Path previous = null;
+		if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+			previous = target.getParent().resolve(".node_modules-old-" + UUID.randomUUID());
+			Files.move(target, previous, StandardCopyOption.ATOMIC_MOVE);
+		}
+		Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+		if (previous != null) {
+			deleteTree(previous);
+		}
+	}
+
+	/**
+	 * Unlike a temporary directory, the staging directory gets the usual permissions, which the
+	 * tree keeps once it is moved into place
+	 */
+	private static Path createStaging(Path parent, String prefix) throws IOException {
+		return Files.createDirectory(parent.resolve(prefix + UUID.randomUUID()));
+	}
+
+	/**
+	 * Copies or links every file below source into target, recreating symbolic links as they are
+	 * rather than following them
+	 */
+	private static void copyTree(final Path source, final Path target, final boolean link) throws IOException {
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			private boolean linking = link;
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Path destination = target.resolve(source.relativize(file).toString());
+				if (attrs.isSymbolicLink()) {
+					Files.createSymbolicLink(destination, Files.readSymbolicLink(file));
+				} else if (linking) {
+					try {
+						Files.createLink(destination, file);
+					} catch (IOException | UnsupportedOperationException ex) {
+						// another file system, or no hard links on this one
+						linking = false;
+						Files.copy(file, destination, StandardCopyOption.COPY_ATTRIBUTES);
+					}
+				} else {
+					Files.copy(file, destination, StandardCopyOption.COPY_ATTRIBUTES);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Deletes a tree without following the symbolic links in it
+	 */
+	static void deleteTree(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+				if (ex != null) {
+					throw ex;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
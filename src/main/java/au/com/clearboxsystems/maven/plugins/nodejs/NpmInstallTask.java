@@ -0,0 +1,87 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Installs the npm dependencies of a working directory into its node_modules. The result is kept
+ * in a cache keyed by package.json, the lockfile and the node version, and later builds restore
+ * node_modules from the cache instead of running npm.
+ */
+public class NpmInstallTask extends Task {
+	/**
+	 * Files besides package.json that decide what gets installed, when they exist
+	 */
+	public static final String[] PACKAGE_FILES = {"package.json", "package-lock.json", "npm-shrinkwrap.json", ".npmrc"};
+
+	/**
+	 * Directory holding package.json, node_modules is installed next to it
+	 */
+	@Parameter
+	public File workingDirectory;
+
+	/**
+	 * The npm command that installs the dependencies, such as install or ci
+	 */
+	@Parameter(defaultValue = "install")
+	public String command = "install";
+
+	@Parameter
+	public String[] arguments;
+
+	/**
+	 * Optional file that receives a copy of everything npm prints
+	 */
+	@Parameter
+	public File logFile;
+
+	/**
+	 * Restore node_modules from the cache with hard links instead of copies, falling back to
+	 * copies where links can't be made. Linked files are shared with the cache, so they must not
+	 * be edited in place.
+	 */
+	@Parameter(defaultValue = "true")
+	public boolean linkFromCache = true;
+
+	public File getNodeModules() {
+		return new File(workingDirectory, "node_modules");
+	}
+
+	/**
+	 * @return package.json and those of the other package files that exist
+	 */
+	public List<File> getPackageFiles() {
+		List<File> files = new ArrayList<>();
+		for (String name : PACKAGE_FILES) {
+			File file = new File(workingDirectory, name);
+			if (file.isFile() || name.equals("package.json")) {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return id != null || workingDirectory == null ? super.getDisplayName() : "npm " + command + " " + workingDirectory.getName();
+	}
+}
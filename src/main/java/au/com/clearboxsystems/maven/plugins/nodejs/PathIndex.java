@@ -0,0 +1,118 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefix tree from paths to values. Finding every value registered for a path or one of its
+ * parent directories takes one step per path element, however many paths are registered.
+ */
+public class PathIndex<T> {
+	private static class Node<T> {
+		final Map<String, Node<T>> children = new HashMap<>();
+		final List<T> values = new ArrayList<>(1);
+	}
+
+	private final Node<T> root = new Node<>();
+	private int size;
+
+	public void add(Path path, T value) {
+		Node<T> node = root;
+		for (String element : elements(path)) {
+			Node<T> child = node.children.get(element);
+			if (child == null) {
+				child = new Node<>();
+				node.children.put(element, child);
+			}
+			node = child;
+		}
+		if (!node.values.contains(value)) {
+			node.values.add(value);
+			size++;
+		}
+	}
+
+	/**
+	 * @return true if the value was registered for path
+	 */
+	public boolean remove(Path path, T value) {
+		List<Node<T>> trail = new ArrayList<>();
+		Node<T> node = root;
+		List<String> elements = elements(path);
+		for (String element : elements) {
+			trail.add(node);
+			node = node.children.get(element);
+			if (node == null) {
+				return false;
+			}
+		}
+		if (!node.values.remove(value)) {
+			return false;
+		}
+		size--;
+		// prune the branches left empty
+		for (int i = elements.size() - 1; i >= 0 && node.values.isEmpty() && node.children.isEmpty(); i--) {
+			Node<T> parent = trail.get(i);
+			parent.children.remove(elements.get(i));
+			node = parent;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the values registered for path and for each of its parent directories, outermost
+	 * directory first
+	 */
+	public List<T> find(Path path) {
+		List<T> found = new ArrayList<>();
+		Node<T> node = root;
+		found.addAll(node.values);
+		for (String element : elements(path)) {
+			node = node.children.get(element);
+			if (node == null) {
+				break;
+			}
+			found.addAll(node.values);
+		}
+		return found;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static List<String> elements(Path path) {
+		Path absolute = path.toAbsolutePath().normalize();
+		if (absolute.getNameCount() == 0 && absolute.getRoot() == null) {
+			return Collections.emptyList();
+		}
+		List<String> elements = new ArrayList<>(absolute.getNameCount() + 1);
+		if (absolute.getRoot() != null) {
+			elements.add(absolute.getRoot().toString());
+		}
+		for (Path name : absolute) {
+			elements.add(name.toString());
+		}
+		return elements;
+	}
+}
@@ -0,0 +1,232 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
+import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip and brotli compressed copies of build outputs in the background, so web servers
+ * can serve them without compressing on the fly. The hash of the content each copy was made from
+ * is kept in a hidden sidecar file next to it, <code>.&lt;copy&gt;.sha256</code>, and a copy is only
+ * written again when that hash changes. Timestamps are not trusted: outputs restored from the build
+ * cache or touched by other tools change them without changing the content.
+ *
+ * The JDK has no brotli encoder, brotli copies are made by running the brotli executable.
+ */
+public class Precompressor {
+	// exit code of a shell that could not find the command
+	private static final int COMMAND_NOT_FOUND = 127;
+
+	private final Log log;
+	private final String brotliExecutable;
+	private final ThreadPoolExecutor executor;
+	private final List<Future<?>> pending = new ArrayList<>();
+	private boolean brotliMissing;
+
+	public Precompressor(Log log, int threads, String brotliExecutable) {
+		this.log = log;
+		this.brotliExecutable = brotliExecutable;
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "nodejs-precompress");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues the compressed copies of file that are missing or were made from other content
+	 */
+	public synchronized void submit(File file, boolean gzip, boolean brotli) {
+		prune();
+		if (gzip) {
+			queue(file, new File(file.getPath() + ".gz"), false);
+		}
+		if (brotli) {
+			queue(file, new File(file.getPath() + ".br"), true);
+		}
+	}
+
+	private void queue(final File file, final File target, final boolean brotli) {
+		pending.add(executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				String hash;
+				try {
+					hash = Digests.sha256(file);
+				} catch (IOException ex) {
+					log.error("Failed to write " + target, ex);
+					throw ex;
+				}
+				File sidecar = getSidecar(target);
+				if (target.isFile() && hash.equals(readHash(sidecar))) {
+					return null;
+				}
+				boolean written = brotli ? brotli(file, target) : gzip(file, target);
+				if (written) {
+					Files.write(sidecar.toPath(), hash.getBytes(StandardCharsets.US_ASCII));
+				}
+				return null;
+			}
+		}));
+	}
+
+	/**
+	 * Waits for everything queued so far
+	 *
+	 * @return the number of copies that could not be written
+	 */
+	public int await() throws InterruptedException {
+		List<Future<?>> waiting;
+		synchronized (this) {
+			waiting = new ArrayList<>(pending);
+			pending.clear();
+		}
+		int failures = 0;
+		for (Future<?> future : waiting) {
+			try {
+				future.get();
+			} catch (ExecutionException ex) {
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	public synchronized boolean hasPending() {
+		prune();
+		return !pending.isEmpty();
+	}
+
+	private void prune() {
+		Iterator<Future<?>> iterator = pending.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isDone()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static File getSidecar(File copy) {
+		return new File(copy.getAbsoluteFile().getParentFile(), "." + copy.getName() + ".sha256");
+	}
+
+	private static String readHash(File sidecar) {
+		try {
+			return new String(Files.readAllBytes(sidecar.toPath()), StandardCharsets.US_ASCII).trim();
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private boolean gzip(File file, File target) throws IOException {
+		File temp = File.createTempFile("." + target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+		try {
+			try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp.toPath()), 65536) {
+				{
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			}) {
+				Files.copy(file.toPath(), out);
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.debug("Wrote " + target);
+			return true;
+		} catch (IOException ex) {
+			log.error("Failed to write " + target, ex);
+			throw ex;
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private boolean brotli(File file, File target) throws IOException {
+		synchronized (this) {
+			if (brotliMissing) {
+				return false;
+			}
+		}
+		File temp = File.createTempFile("." + target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+		try {
+			Commandline commandLine = new Commandline();
+			commandLine.setExecutable(brotliExecutable);
+			commandLine.createArg().setValue("--quality=11");
+			commandLine.createArg().setValue("--force");
+			commandLine.createArg().setValue("--output=" + temp.getAbsolutePath());
+			commandLine.createArg().setFile(file.getAbsoluteFile());
+			final StringBuilder output = new StringBuilder();
+			StreamConsumer errors = new StreamConsumer() {
+				@Override
+				public void consumeLine(String line) {
+					synchronized (output) {
+						output.append(System.getProperty("line.separator")).append(line);
+					}
+				}
+			};
+			int exitCode;
+			try {
+				exitCode = CommandLineUtils.executeCommandLine(commandLine, errors, errors);
+			} catch (CommandLineException ex) {
+				exitCode = COMMAND_NOT_FOUND;
+			}
+			if (exitCode == COMMAND_NOT_FOUND) {
+				synchronized (this) {
+					if (!brotliMissing) {
+						log.warn("Unable to run " + brotliExecutable + ", brotli compressed outputs are not written");
+					}
+					brotliMissing = true;
+				}
+				return false;
+			}
+			if (exitCode != 0) {
+				log.error("Failed to write " + target + ", " + brotliExecutable + " exited with " + exitCode + output);
+				throw new IOException(brotliExecutable + " exited with " + exitCode);
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.debug("Wrote " + target);
+			return true;
+		} finally {
+			temp.delete();
+		}
+	}
+}
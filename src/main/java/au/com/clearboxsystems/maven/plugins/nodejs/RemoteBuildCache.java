@@ -0,0 +1,264 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.Base64;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A build cache shared over HTTP, in front of which the local {@link BuildCache} sits. Entries
+ * are read with {@code GET <url>/<key>} and written with {@code PUT <url>/<key>}, the body being
+ * the zip the local cache stores, so any server that keeps what is PUT to it will do.
+ *
+ * Uploads run in the background while the build carries on. The cache never fails a build: errors
+ * are logged, and after the server could not be reached it is not asked again during the run.
+ */
+public class RemoteBuildCache {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int READ_TIMEOUT = 60000;
+
+	private final Log log;
+	private final String url;
+	private final String authorization;
+	private final boolean push;
+	private final ThreadPoolExecutor executor;
+	private final List<Future<?>> pending = new ArrayList<>();
+	private volatile boolean unreachable;
+
+	/**
+	 * @param url  base URL of the cache, credentials in it are sent with basic authentication
+	 * @param push whether outputs built locally are uploaded
+	 */
+	public RemoteBuildCache(Log log, URL url, boolean push) {
+		this.log = log;
+		String base = url.toExternalForm();
+		if (url.getUserInfo() != null) {
+			authorization = "Basic " + new String(Base64.encodeBase64(url.getUserInfo().getBytes(UTF8)), UTF8);
+			base = base.replace(url.getUserInfo() + "@", "");
+		} else {
+			authorization = null;
+		}
+		this.url = base.endsWith("/") ? base : base + "/";
+		this.push = push;
+		executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "nodejs-cache-upload");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Downloads the entry stored under key to target, replacing it atomically
+	 *
+	 * @return false if the server has no entry for the key or could not be reached
+	 */
+	public boolean fetch(String key, File target) {
+		if (unreachable) {
+			return false;
+		}
+		HttpURLConnection connection = null;
+		try {
+			connection = open(key, "GET");
+			int status = connection.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				discard(connection);
+				if (status != HttpURLConnection.HTTP_NOT_FOUND) {
+					log.warn("Remote build cache returned " + status + " for " + key);
+				}
+				return false;
+			}
+			target.getParentFile().mkdirs();
+			File temp = File.createTempFile(".remote-", ".tmp", target.getParentFile());
+			try {
+				try (InputStream in = connection.getInputStream()) {
+					Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temp.delete();
+			}
+			return true;
+		} catch (IOException ex) {
+			failed("read", key, ex);
+			return false;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Queues the upload of a local cache entry, unless pushing is disabled
+	 */
+	public synchronized void upload(final String key, final File entry) {
+		if (!push || unreachable) {
+			return;
+		}
+		pending.add(executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				put(key, entry);
+				return null;
+			}
+		}));
+	}
+
+	/**
+	 * Waits for the uploads queued so far
+	 *
+	 * @return the number of entries that could not be uploaded
+	 */
+	public int await() throws InterruptedException {
+		List<Future<?>> waiting;
+		synchronized (this) {
+			waiting = new ArrayList<>(pending);
+			pending.clear();
+		}
+		int failures = 0;
+		for (Future<?> future : waiting) {
+			try {
+				future.get();
+			} catch (ExecutionException ex) {
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	public synchronized boolean hasPending() {
+		for (Future<?> future : pending) {
+			if (!future.isDone()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	private void put(String key, File entry) throws IOException {
+		if (unreachable) {
+			return;
+		}
+		try {
+			try {
+				send(key, entry);
+			} catch (SocketException | EOFException ex) {
+				// the kept alive connection the request went out on had been closed by the server
+				send(key, entry);
+			}
+			log.debug("Uploaded " + key + " to the remote build cache");
+		} catch (IOException ex) {
+			failed("write", key, ex);
+			throw ex;
+		}
+	}
+
+	private void send(String key, File entry) throws IOException {
+		HttpURLConnection connection = open(key, "PUT");
+		try {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(entry.length());
+			connection.setRequestProperty("Content-Type", "application/zip");
+			try (OutputStream out = connection.getOutputStream()) {
+				Files.copy(entry.toPath(), out);
+			}
+			int status = connection.getResponseCode();
+			discard(connection);
+			if (status < 200 || status >= 300) {
+				throw new IOException("server returned " + status);
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private HttpURLConnection open(String key, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url + key).openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		connection.setUseCaches(false);
+		if (authorization != null) {
+			connection.setRequestProperty("Authorization", authorization);
+		}
+		return connection;
+	}
+
+	/**
+	 * Reads what is left of a response, so its connection can be reused
+	 */
+	private static void discard(HttpURLConnection connection) throws IOException {
+		InputStream in = connection.getErrorStream();
+		if (in == null && connection.getResponseCode() < 400) {
+			in = connection.getInputStream();
+		}
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[4096];
+				while (in.read(buffer) != -1) {
+					// discard
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private void failed(String action, String key, IOException ex) {
+		if (ex instanceof ConnectException || ex instanceof SocketTimeoutException || ex instanceof UnknownHostException) {
+			if (!unreachable) {
+				unreachable = true;
+				log.warn("Remote build cache " + url + " could not be reached, it won't be used for the rest of the build: " + ex.getMessage());
+			}
+			return;
+		}
+		log.warn("Unable to " + action + " " + key + " in the remote build cache: " + ex.getMessage());
+	}
+}
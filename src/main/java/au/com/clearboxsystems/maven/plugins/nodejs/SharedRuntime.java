@@ -0,0 +1,173 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.SourceFile;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State shared by every execution of the plugin in the JVM. Maven loads the plugin once per
+ * build, so in a reactor every module sees the same runtime: node is verified once, the closure
+ * compiler's externs are read once and stay in memory with the compiler's warmed up code, and
+ * tasks from modules built in parallel with {@code mvn -T} run on one bounded pool instead of a
+ * pool per module. Forked compiler JVMs are kept here too, so every module reuses them.
+ */
+public final class SharedRuntime {
+	private static final Set<String> INSTALLED = new HashSet<>();
+	private static final Map<String, CachedSource> EXTERNS = new HashMap<>();
+	private static List<SourceFile> defaultExterns;
+	private static ThreadPoolExecutor taskPool;
+	private static final Map<List<String>, ClosureCompilerPool> COMPILER_POOLS = new HashMap<>();
+
+	private static class CachedSource {
+		final long size;
+		final long lastModified;
+		final SourceFile source;
+
+		CachedSource(long size, long lastModified, SourceFile source) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.source = source;
+		}
+	}
+
+	private SharedRuntime() {
+	}
+
+	/**
+	 * @return true if the node executable has already been installed and verified in this JVM
+	 */
+	public static synchronized boolean isInstalled(File executable) {
+		return INSTALLED.contains(executable.getAbsolutePath()) && executable.exists();
+	}
+
+	public static synchronized void setInstalled(File executable) {
+		INSTALLED.add(executable.getAbsolutePath());
+	}
+
+	/**
+	 * @return the externs the compiler adds by default, loaded once
+	 */
+	public static synchronized List<SourceFile> getDefaultExterns() throws IOException {
+		if (defaultExterns == null) {
+			defaultExterns = Collections.unmodifiableList(new ArrayList<>(CommandLineRunner.getDefaultExterns()));
+		}
+		return defaultExterns;
+	}
+
+	/**
+	 * @return the extern file, read again only when its size or modification time has changed
+	 */
+	public static SourceFile getExtern(String path) throws IOException {
+		File file = new File(path);
+		long size = file.length();
+		long lastModified = file.lastModified();
+		synchronized (EXTERNS) {
+			CachedSource cached = EXTERNS.get(path);
+			if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+				return cached.source;
+			}
+		}
+		SourceFile source = SourceFile.fromCode(path, FileUtils.readFileToString(file, "UTF-8"));
+		synchronized (EXTERNS) {
+			EXTERNS.put(path, new CachedSource(size, lastModified, source));
+		}
+		return source;
+	}
+
+	/**
+	 * @return the externs CommandLineRunner would create for the arguments, taking the default
+	 * externs and the extern files from this runtime instead of reading them for every compile
+	 */
+	public static List<SourceFile> createExterns(String[] args) throws IOException {
+		List<String> files = new ArrayList<>();
+		boolean whitespaceOnly = false;
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals("--externs")) {
+				files.add(args[i + 1]);
+			} else if (args[i].equals("--compilation_level")) {
+				whitespaceOnly = args[i + 1].equals("WHITESPACE_ONLY");
+			}
+		}
+		List<SourceFile> externs = new ArrayList<>();
+		if (!whitespaceOnly) {
+			externs.addAll(getDefaultExterns());
+		}
+		if (files.isEmpty()) {
+			externs.add(SourceFile.fromCode("/dev/null", ""));
+		}
+		for (String file : files) {
+			externs.add(getExtern(file));
+		}
+		return externs;
+	}
+
+	/**
+	 * @return the pool of compiler JVMs started with jvmArgs, grown to at least size workers
+	 */
+	public static synchronized ClosureCompilerPool getCompilerPool(List<String> jvmArgs, int size) {
+		ClosureCompilerPool pool = COMPILER_POOLS.get(jvmArgs);
+		if (pool == null) {
+			pool = new ClosureCompilerPool(jvmArgs, size);
+			COMPILER_POOLS.put(new ArrayList<>(jvmArgs), pool);
+		} else {
+			pool.resize(size);
+		}
+		return pool;
+	}
+
+	/**
+	 * @return the pool tasks of every execution run on, grown to at least the given number of
+	 * threads. Its threads are daemons and exit when the pool has been idle for a minute.
+	 */
+	public static synchronized ExecutorService getTaskPool(int threads) {
+		int size = Math.max(1, threads);
+		if (taskPool == null) {
+			taskPool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private int count;
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "nodejs-task-" + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			taskPool.allowCoreThreadTimeOut(true);
+		} else if (taskPool.getMaximumPoolSize() < size) {
+			taskPool.setMaximumPoolSize(size);
+			taskPool.setCorePoolSize(size);
+		}
+		return taskPool;
+	}
+}
@@ -0,0 +1,258 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.codehaus.plexus.util.MatchPatterns;
+import org.codehaus.plexus.util.SelectorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the source files below a set of roots that match Ant style include and exclude patterns,
+ * relative to the root they were found in. Directories are listed in parallel on a fork/join pool
+ * and excluded directories are never descended into. Dotfiles are always skipped. The result is
+ * sorted, so a given tree always produces the same file order.
+ */
+public class SourceScanner {
+	public static final List<String> DEFAULT_INCLUDES = Collections.unmodifiableList(Arrays.asList("**/*.js"));
+	public static final List<String> DEFAULT_EXCLUDES = Collections.unmodifiableList(Arrays.asList(
+			"**/node_modules/**", "**/.git/**", "**/.svn/**", "**/.hg/**", "**/CVS/**"));
+
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	private final List<String> includePatterns;
+	private final MatchPatterns includes;
+	private final MatchPatterns excludes;
+	private final boolean parallel;
+
+	public SourceScanner() {
+		this(null, null, true);
+	}
+
+	/**
+	 * @param includes patterns of the files to return, DEFAULT_INCLUDES when null or empty
+	 * @param excludes patterns of files and directories to skip, in addition to DEFAULT_EXCLUDES
+	 */
+	public SourceScanner(List<String> includes, List<String> excludes, boolean parallel) {
+		this.includePatterns = normalize(includes == null || includes.isEmpty() ? DEFAULT_INCLUDES : includes);
+		this.includes = MatchPatterns.from(includePatterns);
+		List<String> allExcludes = new ArrayList<>(DEFAULT_EXCLUDES);
+		if (excludes != null) {
+			allExcludes.addAll(excludes);
+		}
+		this.excludes = MatchPatterns.from(normalize(allExcludes));
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return the absolute paths of the matching files, sorted and without duplicates. A root that
+	 * is a file is returned if its name matches, a root that does not exist is ignored.
+	 */
+	public List<String> scan(Collection<File> roots) throws IOException {
+		SortedSet<String> files = new TreeSet<>();
+		long scanned = 0;
+		for (File root : roots) {
+			Path path = root.toPath().toAbsolutePath();
+			if (Files.isDirectory(path)) {
+				scanned += parallel ? scanParallel(path, files) : scanSequential(path, files);
+			} else if (Files.exists(path)) {
+				scanned++;
+				String name = path.getFileName().toString();
+				if (accept(name, name)) {
+					files.add(path.toString());
+				}
+			}
+		}
+		BuildMetrics.current().addFilesScanned(scanned);
+		return new ArrayList<>(files);
+	}
+
+	public List<String> scan(File root) throws IOException {
+		return scan(Collections.singletonList(root));
+	}
+
+	/**
+	 * @return true if a scan would return the file at relativePath below a root
+	 */
+	public boolean includesFile(String relativePath) {
+		int separator = relativePath.lastIndexOf(File.separatorChar);
+		return accept(relativePath.substring(separator + 1), relativePath);
+	}
+
+	/**
+	 * @return true if a scan would look inside the directory at relativePath below a root
+	 */
+	public boolean includesDirectory(String relativePath) {
+		return descend(relativePath);
+	}
+
+	private boolean accept(String name, String relativePath) {
+		return !name.startsWith(".") && includes.matches(relativePath, true) && !excludes.matches(relativePath, true);
+	}
+
+	private boolean descend(String relativePath) {
+		if (excludes.matches(relativePath, true)) {
+			return false;
+		}
+		// MatchPatterns.matchesPatternStart accepts every directory, so each pattern is checked here
+		for (String pattern : includePatterns) {
+			if (SelectorUtils.matchPatternStart(pattern, relativePath, true)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private long scanParallel(Path root, Collection<String> files) throws IOException {
+		DirectoryTask task = new DirectoryTask(root, "");
+		try {
+			files.addAll(POOL.invoke(task));
+		} catch (ScanException ex) {
+			throw ex.getCause();
+		}
+		return task.scanned;
+	}
+
+	private long scanSequential(final Path root, final Collection<String> files) throws IOException {
+		final long[] scanned = {0};
+		Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (dir.equals(root)) {
+					return FileVisitResult.CONTINUE;
+				}
+				scanned[0]++;
+				return descend(relativize(root, dir)) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				scanned[0]++;
+				if (accept(file.getFileName().toString(), relativize(root, file))) {
+					files.add(file.toString());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+				if (ex instanceof FileSystemLoopException) {
+					return FileVisitResult.CONTINUE;
+				}
+				throw ex;
+			}
+		});
+		return scanned[0];
+	}
+
+	private static String relativize(Path root, Path path) {
+		return root.relativize(path).toString();
+	}
+
+	private static List<String> normalize(List<String> patterns) {
+		List<String> result = new ArrayList<>(patterns.size());
+		for (String pattern : patterns) {
+			String normalized = pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+			// as in Ant, a pattern ending in a separator matches everything below that directory
+			if (normalized.endsWith(File.separator)) {
+				normalized += "**";
+			}
+			result.add(normalized);
+		}
+		return result;
+	}
+
+	/**
+	 * Lists one directory, forking a task for each subdirectory
+	 */
+	private class DirectoryTask extends RecursiveTask<List<String>> {
+		private final Path directory;
+		private final String prefix;
+		private long scanned;
+
+		DirectoryTask(Path directory, String prefix) {
+			this.directory = directory;
+			this.prefix = prefix;
+		}
+
+		@Override
+		protected List<String> compute() {
+			List<String> files = new ArrayList<>();
+			List<DirectoryTask> subdirectories = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				for (Path entry : entries) {
+					scanned++;
+					String name = entry.getFileName().toString();
+					String relativePath = prefix + name;
+					if (Files.isDirectory(entry)) {
+						if (descend(relativePath) && !isLoop(entry)) {
+							DirectoryTask task = new DirectoryTask(entry, relativePath + File.separator);
+							task.fork();
+							subdirectories.add(task);
+						}
+					} else if (accept(name, relativePath)) {
+						files.add(entry.toString());
+					}
+				}
+			} catch (IOException ex) {
+				throw new ScanException(ex);
+			}
+			for (DirectoryTask task : subdirectories) {
+				files.addAll(task.join());
+				scanned += task.scanned;
+			}
+			return files;
+		}
+
+		/**
+		 * @return true for a link to this directory or one of its parents
+		 */
+		private boolean isLoop(Path entry) throws IOException {
+			return Files.isSymbolicLink(entry) && directory.toRealPath().startsWith(entry.toRealPath());
+		}
+	}
+
+	private static class ScanException extends RuntimeException {
+		ScanException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the source trees of tasks for changes. Only the directories a scan with the task's
+ * include and exclude patterns would look in are registered, so dependency, build output and
+ * version control trees cost no watches. Source roots are kept in a {@link PathIndex}, so a
+ * change is reported to every task with a root above it whose patterns match, and a directory
+ * shared by several tasks is registered once.
+ *
+ * When the operating system runs out of watches (the inotify limit on Linux) the trees that could
+ * not be registered are polled instead, comparing the modification time and size of their files.
+ */
+public class SourceWatcher {
+	/**
+	 * Directories that are never watched. node_modules is also among
+	 * {@link SourceScanner#DEFAULT_EXCLUDES}, it is listed here so a task watching its whole working
+	 * directory never watches its installed packages.
+	 */
+	public static final List<String> DEFAULT_EXCLUDES = Collections.unmodifiableList(Arrays.asList("**/node_modules/**", "**/target/**"));
+
+	private static final WatchEvent.Kind<?>[] EVENTS = {StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE};
+
+	private final Log log;
+	private final long pollInterval;
+	private final WatchService watchService;
+	private final PathIndex<Registration> index = new PathIndex<>();
+	private final Set<Path> watched = new HashSet<>();
+	private final List<Poller> pollers = new ArrayList<>();
+	private long lastPoll = System.currentTimeMillis();
+	private boolean warned;
+
+	/**
+	 * @param poll poll every tree instead of using the operating system's file change notifications
+	 */
+	public SourceWatcher(Log log, long pollInterval, boolean poll) throws IOException {
+		this.log = log;
+		this.pollInterval = pollInterval;
+		this.watchService = poll ? null : FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Reports changes to the files below root that filter includes to task. A root that is a file
+	 * reports changes to that file only. Changes to the ignored files and to anything below the
+	 * ignored directories, usually the task's own outputs, are not reported.
+	 */
+	public void watch(Task task, File root, SourceScanner filter, Collection<File> ignored) throws IOException {
+		Path path = root.toPath().toAbsolutePath().normalize();
+		Set<Path> ignoredPaths = new HashSet<>();
+		if (ignored != null) {
+			for (File file : ignored) {
+				ignoredPaths.add(file.toPath().toAbsolutePath().normalize());
+			}
+		}
+		if (Files.isDirectory(path)) {
+			index.add(path, new Registration(task, path, filter, ignoredPaths));
+			registerTree(path, null);
+		} else {
+			Path parent = path.getParent();
+			if (parent == null || !Files.isDirectory(parent)) {
+				log.warn("Not watching " + root + ", it does not exist");
+				return;
+			}
+			index.add(path, new Registration(task, path, null, ignoredPaths));
+			if (!register(parent)) {
+				addPoller(parent);
+			}
+		}
+		// trees that were already polled take the new root's files into account from now on
+		for (Poller poller : pollers) {
+			if (poller.start.startsWith(path) || path.startsWith(poller.start)) {
+				poller.snapshot = poller.scan();
+			}
+		}
+	}
+
+	public int getWatchedDirectoryCount() {
+		return watched.size();
+	}
+
+	public int getPolledTreeCount() {
+		return pollers.size();
+	}
+
+	/**
+	 * Waits for a change, then gathers further changes until there has been none for quietPeriod
+	 * milliseconds, so a burst of changes such as a branch switch is reported at once.
+	 *
+	 * @return the changed files of each affected task
+	 */
+	public Map<Task, Set<File>> take(long quietPeriod) throws IOException, InterruptedException {
+		Map<Task, Set<File>> changes = new LinkedHashMap<>();
+		while (changes.isEmpty()) {
+			WatchKey key = next(pollers.isEmpty() ? -1 : Math.max(0, lastPoll + pollInterval - System.currentTimeMillis()));
+			if (key != null) {
+				collectChanges(key, changes);
+			}
+			pollIfDue(changes);
+		}
+		while (true) {
+			WatchKey key = next(quietPeriod);
+			if (key != null) {
+				collectChanges(key, changes);
+			} else if (!pollIfDue(changes)) {
+				return changes;
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+		}
+	}
+
+	private WatchKey next(long timeout) throws InterruptedException {
+		if (watchService == null) {
+			Thread.sleep(timeout < 0 ? Long.MAX_VALUE : timeout);
+			return null;
+		}
+		return timeout < 0 ? watchService.take() : watchService.poll(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return true if a poll was due and found changes
+	 */
+	private boolean pollIfDue(Map<Task, Set<File>> changes) {
+		if (pollers.isEmpty() || System.currentTimeMillis() - lastPoll < pollInterval) {
+			return false;
+		}
+		boolean found = false;
+		for (Poller poller : pollers) {
+			found |= poller.poll(changes);
+		}
+		lastPoll = System.currentTimeMillis();
+		return found;
+	}
+
+	/**
+	 * Registers dir with the watch service, once however many tasks read it
+	 *
+	 * @return false if the directory could not be watched and has to be polled
+	 */
+	private boolean register(Path dir) {
+		if (watched.contains(dir)) {
+			return true;
+		}
+		if (watchService == null) {
+			return false;
+		}
+		try {
+			dir.register(watchService, EVENTS);
+		} catch (IOException ex) {
+			if (!warned) {
+				log.warn("Unable to watch " + dir + " (" + ex.getMessage() + "), polling for changes every " + pollInterval
+						+ "ms instead. On Linux the number of watches is raised with the fs.inotify.max_user_watches sysctl.");
+				warned = true;
+			}
+			return false;
+		}
+		watched.add(dir);
+		return true;
+	}
+
+	/**
+	 * Polls the tree below dir, unless it is part of a tree that is already polled
+	 */
+	private void addPoller(Path dir) {
+		for (Poller poller : pollers) {
+			if (dir.startsWith(poller.start)) {
+				return;
+			}
+		}
+		for (Iterator<Poller> iterator = pollers.iterator(); iterator.hasNext(); ) {
+			if (iterator.next().start.startsWith(dir)) {
+				iterator.remove();
+			}
+		}
+		pollers.add(new Poller(dir));
+	}
+
+	/**
+	 * Registers start and every directory below it that a task reads. Trees that can't be
+	 * registered are polled. When changes is given, the files found are reported as changed, they
+	 * may have been written before the watch was in place.
+	 */
+	private void registerTree(final Path start, final Map<Task, Set<File>> changes) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (!dir.equals(start) && !isRead(dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				if (!register(dir)) {
+					addPoller(dir);
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (changes != null) {
+					addChange(changes, file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException ex) {
+				// symbolic link loops and files deleted while walking
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * @return true if any task looks inside the directory
+	 */
+	private boolean isRead(Path dir) {
+		for (Registration registration : index.find(dir)) {
+			if (registration.includesDirectory(dir)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void collectChanges(WatchKey key, Map<Task, Set<File>> changes) throws IOException {
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (!watched.contains(dir)) {
+				continue;
+			}
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost, report the directory so the tasks rescan their sources
+				for (Registration registration : index.find(dir)) {
+					if (!registration.isIgnored(dir)) {
+						addChange(changes, registration.task, dir);
+					}
+				}
+				continue;
+			}
+			Path file = dir.resolve((Path) event.context());
+			log.debug(String.format("watched %s - %s", event.kind().name(), file));
+			if (Files.isDirectory(file)) {
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isRead(file)) {
+					registerTree(file, changes);
+					log.debug(String.format("added watch for %s", file));
+				}
+				continue;
+			}
+			if (watched.contains(file)) {
+				// a watched directory was deleted, its own key reports the files it held
+				continue;
+			}
+			addChange(changes, file);
+		}
+		if (!key.reset()) {
+			watched.remove(dir);
+		}
+	}
+
+	/**
+	 * Reports a changed file to every task that reads it
+	 */
+	private void addChange(Map<Task, Set<File>> changes, Path file) {
+		if (isTemporary(file.getFileName().toString())) {
+			return;
+		}
+		for (Registration registration : index.find(file)) {
+			if (registration.includesFile(file)) {
+				addChange(changes, registration.task, file);
+			}
+		}
+	}
+
+	private static boolean isTemporary(String filename) {
+		return filename.startsWith(".") || filename.endsWith("~")
+				|| filename.endsWith("___jb_bak___") || filename.endsWith("___jb_old___"); // Ignore tmp files from idea
+	}
+
+	private static void addChange(Map<Task, Set<File>> changes, Task task, Path file) {
+		Set<File> files = changes.get(task);
+		if (files == null) {
+			files = new LinkedHashSet<>();
+			changes.put(task, files);
+		}
+		files.add(file.toFile());
+	}
+
+	/**
+	 * A source root of a task, with the patterns that select the files below it
+	 */
+	private static class Registration {
+		final Task task;
+		final Path root;
+		final SourceScanner filter;
+		final Set<Path> ignored;
+
+		/**
+		 * @param filter null when root is a single file
+		 */
+		Registration(Task task, Path root, SourceScanner filter, Set<Path> ignored) {
+			this.task = task;
+			this.root = root;
+			this.filter = filter;
+			this.ignored = ignored;
+		}
+
+		boolean includesFile(Path file) {
+			if (isIgnored(file)) {
+				return false;
+			}
+			if (filter == null) {
+				return file.equals(root);
+			}
+			return file.startsWith(root) && !file.equals(root) && filter.includesFile(root.relativize(file).toString());
+		}
+
+		boolean includesDirectory(Path dir) {
+			if (filter == null || !dir.startsWith(root) || isIgnored(dir)) {
+				return false;
+			}
+			return dir.equals(root) || filter.includesDirectory(root.relativize(dir).toString());
+		}
+
+		/**
+		 * @return whether the path is an ignored file or directory, or lies below an ignored directory
+		 */
+		boolean isIgnored(Path path) {
+			for (Path ignoredPath : ignored) {
+				if (path.startsWith(ignoredPath)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class FileState {
+		final long modified;
+		final long size;
+
+		FileState(BasicFileAttributes attrs) {
+			this.modified = attrs.lastModifiedTime().toMillis();
+			this.size = attrs.size();
+		}
+
+		boolean sameAs(FileState other) {
+			return other != null && modified == other.modified && size == other.size;
+		}
+	}
+
+	/**
+	 * Finds changes to a tree that could not be watched by comparing it with the state of its files
+	 * at the previous poll. Directories no task reads are not listed.
+	 */
+	private class Poller {
+		final Path start;
+		Map<Path, FileState> snapshot;
+
+		Poller(Path start) {
+			this.start = start;
+			snapshot = scan();
+		}
+
+		boolean poll(Map<Task, Set<File>> changes) {
+			Map<Path, FileState> current = scan();
+			int before = count(changes);
+			for (Map.Entry<Path, FileState> entry : current.entrySet()) {
+				if (!entry.getValue().sameAs(snapshot.get(entry.getKey()))) {
+					addChange(changes, entry.getKey());
+				}
+			}
+			for (Path file : snapshot.keySet()) {
+				if (!current.containsKey(file)) {
+					addChange(changes, file);
+				}
+			}
+			snapshot = current;
+			return count(changes) > before;
+		}
+
+		Map<Path, FileState> scan() {
+			final Map<Path, FileState> files = new HashMap<>();
+			if (!Files.isDirectory(start)) {
+				return files;
+			}
+			try {
+				Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+						return dir.equals(start) || isRead(dir) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						files.put(file, new FileState(attrs));
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException ex) {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException ex) {
+				log.debug("Unable to poll " + start + ": " + ex.getMessage());
+			}
+			return files;
+		}
+	}
+
+	private static int count(Map<Task, Set<File>> changes) {
+		int count = 0;
+		for (Set<File> files : changes.values()) {
+			count += files.size();
+		}
+		return count;
+	}
+}
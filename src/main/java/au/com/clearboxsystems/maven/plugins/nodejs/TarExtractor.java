@@ -0,0 +1,300 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Extracts (optionally gzipped) tar archives, such as the node distributions, without starting an
+ * external tar process. Supports regular files, directories, symbolic and hard links, and GNU and
+ * pax long names. Entries, link targets included, may not reach outside of the target directory,
+ * also not through links extracted earlier.
+ */
+public class TarExtractor {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BLOCK = 512;
+
+	private final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+	public void extract(Path archive, Path target) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(archive), 65536)) {
+			extract(archive.getFileName().toString().endsWith("gz") ? new GZIPInputStream(in, 65536) : in, target);
+		}
+	}
+
+	public void extract(InputStream in, Path target) throws IOException {
+		Path root = target.toAbsolutePath().normalize();
+		Files.createDirectories(root);
+		Path realRoot = root.toRealPath();
+		byte[] header = new byte[BLOCK];
+		String longName = null;
+		String longLink = null;
+
+		while (true) {
+			if (!readBlock(in, header)) {
+				return;
+			}
+			if (isZeroBlock(header)) {
+				return;
+			}
+
+			String name = string(header, 0, 100);
+			String prefix = string(header, 345, 155);
+			if (!prefix.isEmpty() && string(header, 257, 5).equals("ustar")) {
+				name = prefix + "/" + name;
+			}
+			String link = string(header, 157, 100);
+			int mode = (int) number(header, 100, 8);
+			long size = number(header, 124, 12);
+			char type = (char) header[156];
+
+			if (type == 'L' || type == 'K') {
+				String value = new String(readData(in, size), UTF8);
+				int end = value.indexOf('\0');
+				value = end >= 0 ? value.substring(0, end) : value;
+				if (type == 'L') {
+					longName = value;
+				} else {
+					longLink = value;
+				}
+				continue;
+			}
+			if (type == 'x') {
+				String pax = new String(readData(in, size), UTF8);
+				longName = paxValue(pax, "path", longName);
+				longLink = paxValue(pax, "linkpath", longLink);
+				continue;
+			}
+			if (type == 'g') {
+				skip(in, size);
+				continue;
+			}
+
+			if (longName != null) {
+				name = longName;
+				longName = null;
+			}
+			if (longLink != null) {
+				link = longLink;
+				longLink = null;
+			}
+
+			Path path = resolve(root, name);
+			switch (type) {
+				case '5':
+					Files.createDirectories(path);
+					checkReal(realRoot, path, name);
+					skip(in, size);
+					break;
+				case '2':
+					createParent(realRoot, path, name);
+					Path linkTarget = path.getFileSystem().getPath(link);
+					if (linkTarget.isAbsolute() || !path.getParent().resolve(linkTarget).normalize().startsWith(root)) {
+						throw new IOException("Archive entry " + name + " links to " + link + ", outside of " + root);
+					}
+					Files.deleteIfExists(path);
+					Files.createSymbolicLink(path, linkTarget);
+					skip(in, size);
+					break;
+				case '1':
+					createParent(realRoot, path, name);
+					Path source = resolve(root, link);
+					checkReal(realRoot, source, link);
+					Files.deleteIfExists(path);
+					Files.copy(source, path);
+					skip(in, size);
+					break;
+				case '0':
+				case '\0':
+				case '7':
+					createParent(realRoot, path, name);
+					// never write through a link an earlier entry put in this place
+					Files.deleteIfExists(path);
+					try (OutputStream out = Files.newOutputStream(path)) {
+						copy(in, out, size);
+					}
+					skipPadding(in, size);
+					setMode(path, mode);
+					break;
+				default:
+					skip(in, size);
+			}
+		}
+	}
+
+	private Path resolve(Path root, String name) throws IOException {
+		Path path = root.resolve(name).normalize();
+		if (!path.startsWith(root)) {
+			throw new IOException("Archive entry " + name + " is outside of " + root);
+		}
+		return path;
+	}
+
+	private static void createParent(Path realRoot, Path path, String name) throws IOException {
+		Files.createDirectories(path.getParent());
+		checkReal(realRoot, path.getParent(), name);
+	}
+
+	/**
+	 * Fails when path, with the links in it followed, is outside of the root
+	 */
+	private static void checkReal(Path realRoot, Path path, String name) throws IOException {
+		if (!path.toRealPath().startsWith(realRoot)) {
+			throw new IOException("Archive entry " + name + " is outside of " + realRoot + " through a link");
+		}
+	}
+
+	private void setMode(Path path, int mode) throws IOException {
+		if (!posix) {
+			return;
+		}
+		Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+		PosixFilePermission[] bits = {
+				PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+				PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+				PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ};
+		for (int i = 0; i < bits.length; i++) {
+			if ((mode & (1 << i)) != 0) {
+				permissions.add(bits[i]);
+			}
+		}
+		permissions.add(PosixFilePermission.OWNER_READ);
+		permissions.add(PosixFilePermission.OWNER_WRITE);
+		Files.setPosixFilePermissions(path, permissions);
+	}
+
+	private static String paxValue(String pax, String key, String current) {
+		for (String record : pax.split("\n")) {
+			int space = record.indexOf(' ');
+			int equals = record.indexOf('=');
+			if (space >= 0 && equals > space && record.substring(space + 1, equals).equals(key)) {
+				return record.substring(equals + 1);
+			}
+		}
+		return current;
+	}
+
+	private static String string(byte[] block, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && block[end] != 0) {
+			end++;
+		}
+		return new String(block, offset, end - offset, UTF8);
+	}
+
+	private static long number(byte[] block, int offset, int length) {
+		if ((block[offset] & 0x80) != 0) {
+			// base-256 encoding used for large values
+			long value = block[offset] & 0x7f;
+			for (int i = offset + 1; i < offset + length; i++) {
+				value = (value << 8) | (block[i] & 0xff);
+			}
+			return value;
+		}
+		String octal = string(block, offset, length).trim();
+		return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+	}
+
+	private static boolean isZeroBlock(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+		int offset = 0;
+		while (offset < block.length) {
+			int read = in.read(block, offset, block.length - offset);
+			if (read < 0) {
+				if (offset == 0) {
+					return false;
+				}
+				throw new EOFException("Truncated tar archive");
+			}
+			offset += read;
+		}
+		return true;
+	}
+
+	private static byte[] readData(InputStream in, long size) throws IOException {
+		byte[] data = new byte[(int) size];
+		int offset = 0;
+		while (offset < data.length) {
+			int read = in.read(data, offset, data.length - offset);
+			if (read < 0) {
+				throw new EOFException("Truncated tar archive");
+			}
+			offset += read;
+		}
+		skipPadding(in, size);
+		return data;
+	}
+
+	private static void copy(InputStream in, OutputStream out, long size) throws IOException {
+		byte[] buffer = new byte[65536];
+		long remaining = size;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (read < 0) {
+				throw new EOFException("Truncated tar archive");
+			}
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+	private static void skip(InputStream in, long size) throws IOException {
+		skipFully(in, size);
+		skipPadding(in, size);
+	}
+
+	private static void skipPadding(InputStream in, long size) throws IOException {
+		long remainder = size % BLOCK;
+		if (remainder != 0) {
+			skipFully(in, BLOCK - remainder);
+		}
+	}
+
+	private static void skipFully(InputStream in, long count) throws IOException {
+		long remaining = count;
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException("Truncated tar archive");
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+	}
+}
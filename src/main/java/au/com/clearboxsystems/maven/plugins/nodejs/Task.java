@@ -2,6 +2,8 @@ package au.com.clearboxsystems.maven.plugins.nodejs;
 
 import org.apache.maven.plugins.annotations.Parameter;
 
+import java.util.List;
+
 /**
  * Author: Paul Solomon
  * Date: 12/02/13
@@ -10,4 +12,28 @@ public class Task {
 
 	@Parameter()
 	public boolean watch;
+
+	/**
+	 * Identifies this task so that other tasks can list it in their dependsOn
+	 */
+	@Parameter
+	public String id;
+
+	/**
+	 * Ids of the tasks that must complete before this task is started
+	 */
+	@Parameter
+	public List<String> dependsOn;
+
+	/**
+	 * @return a short name used when logging about this task
+	 */
+	public String getDisplayName() {
+		return id != null ? id : getClass().getSimpleName();
+	}
+
+	@Override
+	public String toString() {
+		return getDisplayName();
+	}
 }
@@ -0,0 +1,120 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Streams the output of a process to the maven log line by line as it is produced, tagging each
+ * line with the task it came from, and optionally copies it to a log file. Nothing is buffered
+ * beyond the current line, so memory use does not grow with the amount of output. Lines that are
+ * compiler diagnostics, such as those of tsc, are also recorded as diagnostics of the task.
+ */
+public class TaskOutput {
+	private final Log log;
+	private final Task task;
+	private final String prefix;
+	private final File logFile;
+	private final Diagnostics diagnostics;
+	private Writer writer;
+
+	public TaskOutput(Log log, Task task, File logFile) throws IOException {
+		this(log, task, logFile, null);
+	}
+
+	/**
+	 * @param diagnostics receives the diagnostics found in the output, may be null
+	 */
+	public TaskOutput(Log log, Task task, File logFile, Diagnostics diagnostics) throws IOException {
+		this.log = log;
+		this.task = task;
+		this.diagnostics = diagnostics;
+		this.prefix = task != null ? "[" + task.getDisplayName() + "] " : "";
+		this.logFile = logFile;
+		if (logFile != null) {
+			File parent = logFile.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile), Charset.forName("UTF-8")));
+		}
+	}
+
+	public StreamConsumer getSystemOut() {
+		return new StreamConsumer() {
+			@Override
+			public void consumeLine(String line) {
+				log.info(prefix + line);
+				capture(line);
+				record(line);
+			}
+		};
+	}
+
+	public StreamConsumer getSystemErr() {
+		return new StreamConsumer() {
+			@Override
+			public void consumeLine(String line) {
+				log.error(prefix + line);
+				capture(line);
+				record(line);
+			}
+		};
+	}
+
+	private void record(String line) {
+		if (diagnostics == null) {
+			return;
+		}
+		Diagnostics.Diagnostic diagnostic = Diagnostics.parse(line);
+		if (diagnostic != null) {
+			diagnostics.add(task, diagnostic);
+		}
+	}
+
+	private synchronized void capture(String line) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.write(line);
+			writer.write(System.getProperty("line.separator"));
+		} catch (IOException ex) {
+			log.warn("Failed to write task output to " + logFile + ", no longer capturing output", ex);
+			close();
+		}
+	}
+
+	public synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException ex) {
+				log.warn("Failed to close " + logFile, ex);
+			}
+			writer = null;
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs tasks on a bounded thread pool, starting each task once every task listed in its dependsOn
+ * has completed successfully.
+ *
+ * When none of the tasks declares an id or dependsOn the tasks keep their historical behaviour and
+ * run one after another in the order they are configured.
+ *
+ * In fail fast mode the first failure cancels the run: no further task is started and the threads
+ * of the running tasks are interrupted, which makes the processes they wait for get destroyed.
+ */
+public class TaskScheduler {
+
+	public static interface TaskExecutor {
+		void execute(Task task) throws Exception;
+	}
+
+	public static class Failure {
+		public final Task task;
+		public final Throwable cause;
+		/**
+		 * The task was stopped because another task failed in fail fast mode
+		 */
+		public final boolean cancelled;
+
+		public Failure(Task task, Throwable cause) {
+			this(task, cause, false);
+		}
+
+		public Failure(Task task, Throwable cause, boolean cancelled) {
+			this.task = task;
+			this.cause = cause;
+			this.cancelled = cancelled;
+		}
+	}
+
+	private static class Outcome {
+		final Task task;
+		final Throwable failure;
+
+		Outcome(Task task, Throwable failure) {
+			this.task = task;
+			this.failure = failure;
+		}
+	}
+
+	private final List<Task> tasks;
+	private final Map<Task, List<Task>> dependencies = new IdentityHashMap<>();
+	private final Map<Task, List<Task>> dependents = new IdentityHashMap<>();
+	private final int threads;
+	private final Map<Task, Thread> running = new IdentityHashMap<>();
+	private volatile boolean failFast;
+	private volatile boolean cancelled;
+
+	/**
+	 * @param tasks   the tasks to run, dependencies outside of this list are treated as satisfied
+	 * @param allTasks every configured task, used to resolve dependsOn ids
+	 * @param threads the maximum number of tasks to run at once
+	 */
+	public TaskScheduler(List<Task> tasks, List<Task> allTasks, int threads) throws MojoExecutionException {
+		this.tasks = tasks;
+		this.threads = Math.max(1, Math.min(threads, tasks.size()));
+
+		Map<String, Task> byId = new HashMap<>();
+		boolean declaresGraph = false;
+		for (Task task : allTasks) {
+			if (task.id != null) {
+				declaresGraph = true;
+				if (byId.put(task.id, task) != null) {
+					throw new MojoExecutionException("Duplicate task id: " + task.id);
+				}
+			}
+			if (task.dependsOn != null && !task.dependsOn.isEmpty()) {
+				declaresGraph = true;
+			}
+		}
+
+		Map<Task, Boolean> included = new IdentityHashMap<>();
+		for (Task task : tasks) {
+			included.put(task, Boolean.TRUE);
+			dependencies.put(task, new ArrayList<Task>());
+			dependents.put(task, new ArrayList<Task>());
+		}
+
+		Task previous = null;
+		for (Task task : tasks) {
+			if (!declaresGraph) {
+				if (previous != null) {
+					addDependency(task, previous);
+				}
+				previous = task;
+				continue;
+			}
+			if (task.dependsOn == null) {
+				continue;
+			}
+			for (String id : task.dependsOn) {
+				Task dependency = byId.get(id);
+				if (dependency == null) {
+					throw new MojoExecutionException("Task " + task.getDisplayName() + " depends on unknown task id: " + id);
+				}
+				if (included.containsKey(dependency)) {
+					addDependency(task, dependency);
+				}
+			}
+		}
+	}
+
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	/**
+	 * @return whether a failure cancelled the run, tasks failing after it are being cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	private void addDependency(Task task, Task dependency) {
+		dependencies.get(task).add(dependency);
+		dependents.get(dependency).add(task);
+	}
+
+	/**
+	 * Runs every task. A task whose dependency failed is skipped, independent tasks keep running
+	 * unless fail fast is set.
+	 *
+	 * @return the failures, in the order they occurred
+	 */
+	public List<Failure> run(final TaskExecutor executor) throws MojoExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			return run(executor, pool);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs every task on a pool that may be shared with other schedulers. No more than this
+	 * scheduler's thread count of its tasks are submitted at once, and the pool is left running.
+	 *
+	 * @return the failures, in the order they occurred
+	 */
+	public List<Failure> run(final TaskExecutor executor, ExecutorService pool) throws MojoExecutionException {
+		List<Failure> failures = new ArrayList<>();
+		if (tasks.isEmpty()) {
+			return failures;
+		}
+
+		Map<Task, Integer> pending = new IdentityHashMap<>();
+		Deque<Task> ready = new ArrayDeque<>();
+		for (Task task : tasks) {
+			int count = dependencies.get(task).size();
+			pending.put(task, count);
+			if (count == 0) {
+				ready.add(task);
+			}
+		}
+		if (ready.isEmpty()) {
+			throw new MojoExecutionException("Task dependencies contain a cycle: " + tasks);
+		}
+
+		ExecutorCompletionService<Outcome> completion = new ExecutorCompletionService<>(pool);
+		Map<Task, Boolean> finished = new LinkedHashMap<>();
+		List<Future<Outcome>> submitted = new ArrayList<>();
+		int inFlight = 0;
+		try {
+			while (true) {
+				while (!cancelled && inFlight < threads && !ready.isEmpty()) {
+					submitted.add(submit(completion, executor, ready.poll()));
+					inFlight++;
+				}
+				if (inFlight == 0) {
+					break;
+				}
+				Outcome outcome = completion.take().get();
+				inFlight--;
+				finished.put(outcome.task, outcome.failure == null);
+				if (outcome.failure != null) {
+					failures.add(new Failure(outcome.task, outcome.failure, cancelled));
+					skipDependents(outcome.task, finished);
+					if (failFast && !cancelled) {
+						cancel();
+						ready.clear();
+					}
+					continue;
+				}
+				for (Task dependent : dependents.get(outcome.task)) {
+					int count = pending.get(dependent) - 1;
+					pending.put(dependent, count);
+					if (count == 0 && !finished.containsKey(dependent)) {
+						ready.add(dependent);
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while running tasks", ex);
+		} catch (ExecutionException ex) {
+			throw new MojoExecutionException("Task scheduling failed", ex.getCause());
+		} finally {
+			for (Future<Outcome> future : submitted) {
+				future.cancel(true);
+			}
+		}
+
+		if (failures.isEmpty() && finished.size() != tasks.size()) {
+			List<Task> blocked = new ArrayList<>();
+			for (Task task : tasks) {
+				if (!finished.containsKey(task)) {
+					blocked.add(task);
+				}
+			}
+			throw new MojoExecutionException("Task dependencies contain a cycle: " + blocked);
+		}
+		return failures;
+	}
+
+	private Future<Outcome> submit(ExecutorCompletionService<Outcome> completion, final TaskExecutor executor, final Task task) {
+		return completion.submit(new Callable<Outcome>() {
+			@Override
+			public Outcome call() {
+				synchronized (running) {
+					if (cancelled) {
+						// queued on a busy shared pool when the run was cancelled
+						return new Outcome(task, new CancellationException("Cancelled after an earlier task failed"));
+					}
+					running.put(task, Thread.currentThread());
+				}
+				try {
+					executor.execute(task);
+					return new Outcome(task, null);
+				} catch (Throwable t) {
+					return new Outcome(task, t);
+				} finally {
+					synchronized (running) {
+						running.remove(task);
+					}
+					// an interrupt meant for this task must not reach the next one run on the thread
+					Thread.interrupted();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops tasks from being started and interrupts the running ones
+	 */
+	private void cancel() {
+		synchronized (running) {
+			cancelled = true;
+			for (Thread thread : running.values()) {
+				thread.interrupt();
+			}
+		}
+	}
+
+	private void skipDependents(Task task, Map<Task, Boolean> finished) {
+		for (Task dependent : dependents.get(task)) {
+			if (!finished.containsKey(dependent)) {
+				finished.put(dependent, Boolean.FALSE);
+				skipDependents(dependent, finished);
+			}
+		}
+	}
+}
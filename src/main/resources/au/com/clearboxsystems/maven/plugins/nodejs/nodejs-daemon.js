@@ -0,0 +1,209 @@
+/*
+ * Long running node process used by the nodejs-maven-plugin daemon mode.
+ *
+ * Tasks are read from stdin, one JSON object per line: {"name": "script.js", "args": ["a", "b"]}
+ * Each task's script is loaded fresh, while the modules it requires stay cached between tasks.
+ *
+ * Every line written back on stdout starts with a message type:
+ *   R            the daemon is ready to accept tasks
+ *   N            this node can't tell when a task is finished, the daemon exits
+ *   O <text>     a line the task wrote to stdout
+ *   E <text>     a line the task wrote to stderr
+ *   L            the task left handles open, the daemon must not be reused, followed by X
+ *   X <code>     the task finished with the given exit code
+ *
+ * A task is finished when it calls process.exit() or when it no longer has pending I/O or timers.
+ * Output written while no task is running, such as late writes of a task that exited with work
+ * still pending, goes to the daemon's stderr and never to the protocol.
+ */
+var path = require('path');
+var Module = require('module');
+
+var cwd = process.cwd();
+var nodeArgv = process.argv.slice(0, 1);
+var realStdoutWrite = process.stdout.write;
+var realStderrWrite = process.stderr.write;
+var realExit = process.exit;
+var EXIT = {};
+
+var canCount = !!(process.getActiveResourcesInfo || process._getActiveHandles);
+var ready = false;
+var baseline = 0;
+var current = null;
+var queue = [];
+var input = '';
+
+function send(type, text) {
+	realStdoutWrite.call(process.stdout, text === undefined ? type + '\n' : type + ' ' + text + '\n');
+}
+
+function lineWriter(type) {
+	var pending = '';
+	var writer = function (chunk, encoding, callback) {
+		pending += typeof chunk === 'string' ? chunk : chunk.toString(typeof encoding === 'string' ? encoding : 'utf8');
+		var lines = pending.split('\n');
+		pending = lines.pop();
+		for (var i = 0; i < lines.length; i++) {
+			send(type, lines[i].replace(/\r$/, ''));
+		}
+		if (typeof encoding === 'function') {
+			encoding();
+		} else if (typeof callback === 'function') {
+			callback();
+		}
+		return true;
+	};
+	writer.flush = function () {
+		if (pending.length > 0) {
+			send(type, pending);
+			pending = '';
+		}
+	};
+	return writer;
+}
+
+function stray(chunk, encoding) {
+	var text = typeof chunk === 'string' ? chunk : chunk.toString(typeof encoding === 'string' ? encoding : 'utf8');
+	realStderrWrite.call(process.stderr, text);
+}
+
+function dispatch(stream) {
+	return function (chunk, encoding, callback) {
+		if (current) {
+			return current[stream](chunk, encoding, callback);
+		}
+		stray(chunk, encoding);
+		if (typeof encoding === 'function') {
+			encoding();
+		} else if (typeof callback === 'function') {
+			callback();
+		}
+		return true;
+	};
+}
+
+function activeCount() {
+	if (process.getActiveResourcesInfo) {
+		return process.getActiveResourcesInfo().length;
+	}
+	var count = 0;
+	if (process._getActiveHandles) {
+		count += process._getActiveHandles().length;
+	}
+	if (process._getActiveRequests) {
+		count += process._getActiveRequests().length;
+	}
+	return count;
+}
+
+function finish(code) {
+	if (!current || current.finished) {
+		return;
+	}
+	current.finished = true;
+	clearTimeout(current.timer);
+	current.stdout.flush();
+	current.stderr.flush();
+	process.argv = nodeArgv.slice(0);
+	if (process.cwd() !== cwd) {
+		process.chdir(cwd);
+	}
+	current = null;
+	if (activeCount() > baseline) {
+		// whatever is still pending would run next to the following tasks
+		send('L');
+	}
+	send('X', String(code || 0));
+	process.nextTick(next);
+}
+
+function poll() {
+	if (!current) {
+		return;
+	}
+	if (activeCount() <= baseline) {
+		finish(process.exitCode);
+	} else {
+		current.timer = setTimeout(poll, 10);
+	}
+}
+
+function run(request) {
+	var file = path.resolve(cwd, request.name);
+	current = { stdout: lineWriter('O'), stderr: lineWriter('E'), finished: false };
+	process.argv = nodeArgv.concat([file], request.args || []);
+	process.exitCode = 0;
+
+	delete require.cache[file];
+	try {
+		Module._load(file, null, true);
+	} catch (e) {
+		if (e !== EXIT) {
+			current.stderr(String(e && e.stack || e) + '\n');
+			finish(1);
+		}
+		return;
+	}
+	if (current) {
+		current.timer = setTimeout(poll, 10);
+	}
+}
+
+function next() {
+	if (ready && !current && queue.length > 0) {
+		run(queue.shift());
+	}
+}
+
+process.on('uncaughtException', function (e) {
+	if (e === EXIT) {
+		return;
+	}
+	if (current) {
+		current.stderr(String(e && e.stack || e) + '\n');
+		finish(1);
+	} else {
+		realStderrWrite.call(process.stderr, String(e && e.stack || e) + '\n');
+	}
+});
+
+if (!canCount) {
+	send('N');
+	realExit.call(process, 0);
+}
+
+process.stdout.write = dispatch('stdout');
+process.stderr.write = dispatch('stderr');
+process.exit = function (code) {
+	if (current) {
+		finish(code === undefined ? process.exitCode : code);
+	} else {
+		stray('process.exit(' + code + ') called while no task was running, ignored\n');
+	}
+	throw EXIT;
+};
+
+process.stdin.setEncoding('utf8');
+process.stdin.on('data', function (chunk) {
+	input += chunk;
+	var lines = input.split('\n');
+	input = lines.pop();
+	for (var i = 0; i < lines.length; i++) {
+		if (lines[i].length > 0) {
+			queue.push(JSON.parse(lines[i]));
+		}
+	}
+	next();
+});
+process.stdin.on('end', function () {
+	realExit.call(process, 0);
+});
+process.stdin.resume();
+
+// Measure the idle handle count from the same kind of timer callback that poll() runs in
+setTimeout(function () {
+	baseline = activeCount();
+	ready = true;
+	send('R');
+	next();
+}, 10);
@@ -0,0 +1,109 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AtomicOutputFileTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(UTF8);
+	}
+
+	@Test
+	public void writesTheFileOnCommitOnly() throws IOException {
+		File file = new File(folder.getRoot(), "out/app.js");
+		AtomicOutputFile output = new AtomicOutputFile(file);
+		output.write(bytes("var a = 1;"));
+		output.close();
+		assertFalse(file.exists());
+
+		assertTrue(output.commit());
+
+		assertArrayEquals(bytes("var a = 1;"), Files.readAllBytes(file.toPath()));
+		assertEquals(Digests.sha256(file), output.getHash());
+		assertEquals(10, output.getSize());
+		assertEquals(Arrays.asList("app.js"), Arrays.asList(file.getParentFile().list()));
+	}
+
+	@Test
+	public void leavesIdenticalContentAlone() throws IOException {
+		File file = folder.newFile("app.js");
+		Files.write(file.toPath(), bytes("same"));
+		assertTrue(file.setLastModified(file.lastModified() - 60000));
+		long modified = file.lastModified();
+
+		AtomicOutputFile output = new AtomicOutputFile(file);
+		output.write(bytes("same"));
+
+		assertFalse(output.commit());
+		assertEquals(modified, file.lastModified());
+	}
+
+	@Test
+	public void spillsLargeOutputsToATemporaryFile() throws IOException {
+		File file = new File(folder.getRoot(), "bundle.js");
+		AtomicOutputFile output = new AtomicOutputFile(file, 16);
+		for (int i = 0; i < 10; i++) {
+			output.write(bytes("line " + i + "\n"));
+		}
+		assertEquals(1, folder.getRoot().list().length);
+		assertTrue(new String(output.toByteArray(), UTF8).startsWith("line 0\nline 1\n"));
+
+		assertTrue(output.commit());
+
+		assertEquals(Arrays.asList("bundle.js"), Arrays.asList(folder.getRoot().list()));
+		assertTrue(new String(Files.readAllBytes(file.toPath()), UTF8).endsWith("line 9\n"));
+	}
+
+	@Test
+	public void discardKeepsThePreviousFile() throws IOException {
+		File file = folder.newFile("app.js");
+		Files.write(file.toPath(), bytes("old"));
+		AtomicOutputFile output = new AtomicOutputFile(file, 4);
+		output.write(bytes("new content"));
+
+		output.discard();
+
+		assertArrayEquals(bytes("old"), Files.readAllBytes(file.toPath()));
+		assertEquals(Arrays.asList("app.js"), Arrays.asList(folder.getRoot().list()));
+		try {
+			output.write(bytes("more"));
+			fail("Wrote to a completed output");
+		} catch (IOException expected) {
+			// expected
+		}
+	}
+}
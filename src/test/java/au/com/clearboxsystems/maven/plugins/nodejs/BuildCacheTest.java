@@ -0,0 +1,182 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuildCacheTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(UTF8));
+		return file;
+	}
+
+	private String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), UTF8);
+	}
+
+	@Test
+	public void restoresWhatWasStored() throws IOException {
+		File project = folder.newFolder("project");
+		File directory = new File(project, "out");
+		write(new File(directory, "app.js"), "app");
+		write(new File(directory, "lib/util.js"), "util");
+		File file = write(new File(project, "bundle.js"), "bundle");
+		List<File> outputs = Arrays.asList(directory, file);
+
+		BuildCache cache = new BuildCache(folder.newFolder("cache"));
+		String key = new BuildCache.KeyBuilder().add("task").addFiles(project, file).build();
+		assertFalse(cache.restore(key, outputs));
+		File entry = cache.store(key, outputs);
+		assertTrue(entry.isFile());
+		assertTrue(cache.contains(key));
+
+		deleteTree(project);
+		assertTrue(cache.restore(key, outputs));
+
+		assertEquals("app", read(new File(directory, "app.js")));
+		assertEquals("util", read(new File(directory, "lib/util.js")));
+		assertEquals("bundle", read(file));
+		assertEquals(Arrays.asList(new File(directory, "app.js"), new File(directory, "lib/util.js")), BuildCache.listFiles(directory));
+	}
+
+	@Test
+	public void replacesDirectoryOutputsWhole() throws IOException {
+		File directory = folder.newFolder("out");
+		write(new File(directory, "app.js"), "app");
+		List<File> outputs = Arrays.asList(directory);
+		BuildCache cache = new BuildCache(folder.newFolder("cache"));
+		cache.store("abcdef", outputs);
+
+		write(new File(directory, "app.js"), "changed");
+		write(new File(directory, "stale/old.js"), "stale");
+		assertTrue(cache.restore("abcdef", outputs));
+
+		assertEquals(Arrays.asList(new File(directory, "app.js")), BuildCache.listFiles(directory));
+		assertEquals("app", read(new File(directory, "app.js")));
+		assertEquals(Arrays.asList("cache", "out"), Arrays.asList(sorted(folder.getRoot().list())));
+	}
+
+	@Test
+	public void keysDependOnContentNotLocation() throws IOException {
+		File first = write(new File(folder.newFolder("a"), "src/app.js"), "app");
+		File second = write(new File(folder.newFolder("b"), "src/app.js"), "app");
+
+		String firstKey = new BuildCache.KeyBuilder().add("flags").addFiles(first.getParentFile().getParentFile(), first.getParentFile()).build();
+		String secondKey = new BuildCache.KeyBuilder().add("flags").addFiles(second.getParentFile().getParentFile(), second.getParentFile()).build();
+		assertEquals(firstKey, secondKey);
+
+		write(second, "changed");
+		assertFalse(firstKey.equals(new BuildCache.KeyBuilder().add("flags").addFiles(second.getParentFile().getParentFile(), second.getParentFile()).build()));
+		assertFalse(new BuildCache.KeyBuilder().add("ab").add("c").build().equals(new BuildCache.KeyBuilder().add("a").add("bc").build()));
+	}
+
+	@Test
+	public void rejectsEntriesOutsideOfTheOutputs() throws IOException {
+		File directory = folder.newFolder("out");
+		assertUnpackFails(zip("0/../../escaped.js"), Arrays.asList(directory));
+		assertUnpackFails(zip("1"), Arrays.asList(directory));
+		assertFalse(new File(folder.getRoot(), "escaped.js").exists());
+		assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void leavesOutputsAloneWhenAnEntryIsBroken() throws IOException {
+		File directory = folder.newFolder("out");
+		write(new File(directory, "app.js"), "app");
+		assertUnpackFails(zip("0/new.js", "0/../../escaped.js"), Arrays.asList(directory));
+
+		assertEquals(Arrays.asList(new File(directory, "app.js")), BuildCache.listFiles(directory));
+		assertEquals(Arrays.asList("out"), Arrays.asList(folder.getRoot().list()));
+	}
+
+	@Test
+	public void deletesEntriesThatCannotBeRestored() throws IOException {
+		BuildCache cache = new BuildCache(folder.newFolder("cache"));
+		File directory = folder.newFolder("out");
+		write(new File(directory, "app.js"), "app");
+		String key = new BuildCache.KeyBuilder().add("broken").build();
+		Files.createDirectories(cache.getEntry(key).getParentFile().toPath());
+		Files.write(cache.getEntry(key).toPath(), zip("0/new.js", "0/../../escaped.js"));
+
+		try {
+			cache.restore(key, Arrays.asList(directory));
+			fail("Restored a broken entry");
+		} catch (IOException expected) {
+			// expected
+		}
+		assertFalse(cache.contains(key));
+		assertFalse(cache.restore(key, Arrays.asList(directory)));
+
+		cache.store(key, Arrays.asList(directory));
+		assertTrue(cache.restore(key, Arrays.asList(directory)));
+		assertEquals("app", read(new File(directory, "app.js")));
+	}
+
+	private static byte[] zip(String... names) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			for (String name : names) {
+				zip.putNextEntry(new ZipEntry(name));
+				zip.write(name.getBytes(UTF8));
+				zip.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void assertUnpackFails(byte[] zip, List<File> outputs) {
+		try {
+			BuildCache.unpack(new ByteArrayInputStream(zip), outputs);
+			fail("Unpacked an entry outside of the outputs");
+		} catch (IOException expected) {
+			// expected
+		}
+	}
+
+	private static String[] sorted(String[] names) {
+		Arrays.sort(names);
+		return names;
+	}
+
+	private static void deleteTree(File root) throws IOException {
+		NodeModulesCache.deleteTree(root.toPath());
+	}
+}
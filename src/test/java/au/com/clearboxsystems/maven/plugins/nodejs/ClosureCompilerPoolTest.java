@@ -0,0 +1,161 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClosureCompilerPoolTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static ClosureCompilerPool pool;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void startPool() {
+		pool = new ClosureCompilerPool(Arrays.asList("-Xmx256m"), 1);
+	}
+
+	@AfterClass
+	public static void stopPool() {
+		pool.close();
+	}
+
+	private String[] arguments(File source, File output) {
+		return new String[]{"--js", source.getAbsolutePath(), "--js_output_file", output.getAbsolutePath(),
+				"--compilation_level", "SIMPLE_OPTIMIZATIONS", "--warning_level", "VERBOSE"};
+	}
+
+	private File source(String name, String content) throws IOException {
+		File source = folder.newFile(name);
+		Files.write(source.toPath(), content.getBytes(UTF8));
+		return source;
+	}
+
+	@Test
+	public void returnsTheOutputsOfACompile() throws Exception {
+		File source = source("app.js", "function greet(name) { return 'Hello ' + name; }\nwindow['greet'] = greet;\n");
+		File output = new File(folder.getRoot(), "app.min.js");
+
+		ClosureCompilerPool.Result result = pool.compile(arguments(source, output), Collections.<String, String>emptyMap());
+
+		assertEquals(result.messages, ClosureCompilerProcess.OK, result.status);
+		assertEquals(Collections.singleton(output.getAbsolutePath()), result.outputs.keySet());
+		String compiled = new String(result.outputs.get(output.getAbsolutePath()), UTF8);
+		assertTrue(compiled, compiled.contains("window.greet"));
+		// outputs are returned to the build, not written by the worker
+		assertFalse(output.exists());
+	}
+
+	@Test
+	public void reportsErrorsAsDiagnostics() throws Exception {
+		File source = source("broken.js", "var ok = 1;\nvar = 2;\n");
+
+		ClosureCompilerPool.Result result = pool.compile(arguments(source, new File(folder.getRoot(), "broken.min.js")),
+				Collections.<String, String>emptyMap());
+
+		assertEquals(ClosureCompilerProcess.FAILED, result.status);
+		assertTrue(result.messages, result.messages.contains("ERROR"));
+		assertEquals(1, result.diagnostics.size());
+		Diagnostics.Diagnostic diagnostic = result.diagnostics.get(0);
+		assertEquals(Diagnostics.ERROR, diagnostic.severity);
+		assertEquals(source.getAbsolutePath(), diagnostic.file);
+		assertEquals(2, diagnostic.line);
+		assertTrue(diagnostic.column > 0);
+	}
+
+	@Test
+	public void reusesTheWorkerForLaterCompiles() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			File source = source("app" + i + ".js", "window['value'] = " + i + " + 1;\n");
+			File output = new File(folder.getRoot(), "app" + i + ".min.js");
+
+			ClosureCompilerPool.Result result = pool.compile(arguments(source, output), Collections.<String, String>emptyMap());
+
+			assertEquals(result.messages, ClosureCompilerProcess.OK, result.status);
+			String compiled = new String(result.outputs.get(output.getAbsolutePath()), UTF8);
+			assertTrue(compiled, compiled.contains("window.value=" + (i + 1)));
+		}
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void appliesSourceMapLocationMappings() throws Exception {
+		File source = source("mapped.js", "window['mapped'] = 1;\n");
+		File output = new File(folder.getRoot(), "mapped.min.js");
+		String[] args = Arrays.copyOf(arguments(source, output), 12);
+		args[8] = "--create_source_map";
+		args[9] = "%outname%.map";
+		args[10] = "--source_map_format";
+		args[11] = "V3";
+		Map<String, String> mappings = Collections.singletonMap(folder.getRoot().getAbsolutePath() + File.separator, "../src/");
+
+		ClosureCompilerPool.Result result = pool.compile(args, mappings);
+
+		assertEquals(result.messages, ClosureCompilerProcess.OK, result.status);
+		String map = new String(result.outputs.get(output.getAbsolutePath() + ".map"), UTF8);
+		assertTrue(map, map.contains("\"../src/mapped.js\""));
+	}
+
+	@Test
+	public void diagnosticsSurviveTheWireFormat() throws IOException {
+		Diagnostics.Diagnostic[] diagnostics = {
+				new Diagnostics.Diagnostic(Diagnostics.ERROR, "src/caf\u00e9.js", 3, 7, "JSC_PARSE_ERROR", "Parse error.   unexpected"),
+				new Diagnostics.Diagnostic(Diagnostics.WARNING, null, 0, 0, null, null)
+		};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (Diagnostics.Diagnostic diagnostic : diagnostics) {
+			ClosureCompilerProcess.writeDiagnostic(out, diagnostic);
+		}
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Diagnostics.Diagnostic first = ClosureCompilerProcess.readDiagnostic(in);
+		assertEquals(diagnostics[0].toString(), first.toString());
+		assertEquals("src/caf\u00e9.js", first.file);
+		Diagnostics.Diagnostic second = ClosureCompilerProcess.readDiagnostic(in);
+		assertEquals(Diagnostics.WARNING, second.severity);
+		assertNull(second.file);
+		assertNull(second.code);
+		assertNull(second.message);
+		assertEquals(0, second.line);
+		assertEquals(-1, in.read());
+	}
+}
@@ -0,0 +1,115 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiagnosticsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void parsesTscDiagnostics() {
+		Diagnostics.Diagnostic diagnostic = Diagnostics.parse("src/app.ts(12,5): error TS2304: Cannot find name 'foo'.");
+
+		assertEquals(Diagnostics.ERROR, diagnostic.severity);
+		assertEquals("src/app.ts", diagnostic.file);
+		assertEquals(12, diagnostic.line);
+		assertEquals(5, diagnostic.column);
+		assertEquals("TS2304", diagnostic.code);
+		assertEquals("Cannot find name 'foo'.", diagnostic.message);
+	}
+
+	@Test
+	public void parsesTscPathsWithParentheses() {
+		Diagnostics.Diagnostic diagnostic = Diagnostics.parse("C:\\work (old)\\app.ts(3,14): warning TS6133: 'x' is declared but never used.");
+
+		assertEquals(Diagnostics.WARNING, diagnostic.severity);
+		assertEquals("C:\\work (old)\\app.ts", diagnostic.file);
+		assertEquals(3, diagnostic.line);
+		assertEquals(14, diagnostic.column);
+	}
+
+	@Test
+	public void parsesGnuDiagnostics() {
+		Diagnostics.Diagnostic diagnostic = Diagnostics.parse("styles/main.less:7:22: warning: unknown property");
+
+		assertEquals(Diagnostics.WARNING, diagnostic.severity);
+		assertEquals("styles/main.less", diagnostic.file);
+		assertEquals(7, diagnostic.line);
+		assertEquals(22, diagnostic.column);
+		assertNull(diagnostic.code);
+		assertEquals("unknown property", diagnostic.message);
+	}
+
+	@Test
+	public void ignoresOtherLines() {
+		assertNull(Diagnostics.parse(""));
+		assertNull(Diagnostics.parse("Compiling 12 files"));
+		assertNull(Diagnostics.parse("error: something went wrong"));
+		assertNull(Diagnostics.parse("src/app.ts(12): error TS2304: no column"));
+		assertNull(Diagnostics.parse("src/app.ts:12:5: note: not an error"));
+	}
+
+	@Test
+	public void formatsLocationsThatAreKnown() {
+		assertEquals("a.js:3:4: error JSC_X: bad", new Diagnostics.Diagnostic(Diagnostics.ERROR, "a.js", 3, 4, "JSC_X", "bad").toString());
+		assertEquals("a.js:3: warning: odd", new Diagnostics.Diagnostic(Diagnostics.WARNING, "a.js", 3, 0, null, "odd").toString());
+		assertEquals("error: failed", new Diagnostics.Diagnostic(Diagnostics.ERROR, null, -1, -1, null, "failed").toString());
+	}
+
+	@Test
+	public void countsErrorsPerTask() throws Exception {
+		Task first = new Task();
+		first.id = "first";
+		Task second = new Task();
+		second.id = "second";
+		Diagnostics diagnostics = new Diagnostics();
+		assertTrue(diagnostics.isEmpty());
+
+		diagnostics.addAll(first, Arrays.asList(
+				new Diagnostics.Diagnostic(Diagnostics.ERROR, "a.js", 1, 1, null, "bad \"quote\""),
+				new Diagnostics.Diagnostic(Diagnostics.WARNING, "a.js", 2, 0, null, "odd")));
+		diagnostics.add(second, new Diagnostics.Diagnostic(Diagnostics.WARNING, null, 0, 0, null, "odd"));
+
+		assertTrue(diagnostics.hasErrors(first));
+		assertFalse(diagnostics.hasErrors(second));
+		assertEquals(1, diagnostics.count(Diagnostics.ERROR));
+		assertEquals(2, diagnostics.count(Diagnostics.WARNING));
+
+		File report = new File(folder.getRoot(), "reports/diagnostics.json");
+		diagnostics.writeJson(report);
+		String json = new String(Files.readAllBytes(report.toPath()), Charset.forName("UTF-8"));
+		assertTrue(json, json.contains("\"errors\": 1,"));
+		assertTrue(json, json.contains("\"warnings\": 2,"));
+		assertTrue(json, json.contains("{\"task\": \"first\", \"type\": \"Task\", \"severity\": \"error\", \"file\": \"a.js\", \"line\": 1, \"column\": 1, \"code\": null, \"message\": \"bad \\\"quote\\\"\"}"));
+		assertTrue(json, json.contains("\"file\": null, \"line\": null, \"column\": null"));
+		assertEquals(Arrays.asList("diagnostics.json"), Arrays.asList(report.getParentFile().list()));
+	}
+}
@@ -0,0 +1,137 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InputManifestTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(UTF8));
+		return file;
+	}
+
+	private static String[] arguments(File source, File extern, String level) {
+		return new String[]{"--js", source.getAbsolutePath(), "--externs", extern.getAbsolutePath(),
+				"--js_output_file", "/out/app.js", "--compilation_level", level};
+	}
+
+	@Test
+	public void matchesWhenNothingChanged() throws IOException {
+		File source = write(new File(folder.getRoot(), "src/app.js"), "var a;");
+		File extern = write(new File(folder.getRoot(), "externs/jquery.js"), "var $;");
+		InputManifest first = InputManifest.create(arguments(source, extern, "SIMPLE"), null);
+
+		InputManifest second = InputManifest.create(arguments(source, extern, "SIMPLE"), first);
+
+		assertTrue(second.matches(first));
+		assertTrue(second.isUpToDate(first));
+		assertEquals(2, second.getEntries().size());
+	}
+
+	@Test
+	public void doesNotMatchWhenContentOrFlagsChange() throws IOException {
+		File source = write(new File(folder.getRoot(), "src/app.js"), "var a;");
+		File extern = write(new File(folder.getRoot(), "externs/jquery.js"), "var $;");
+		InputManifest first = InputManifest.create(arguments(source, extern, "SIMPLE"), null);
+
+		assertFalse(InputManifest.create(arguments(source, extern, "ADVANCED"), first).matches(first));
+
+		write(extern, "var jQuery;");
+		assertFalse(InputManifest.create(arguments(source, extern, "SIMPLE"), null).matches(first));
+
+		InputManifest withFlag = InputManifest.create(arguments(source, extern, "SIMPLE"), null);
+		withFlag.addFlag("sourceMap=file");
+		assertFalse(withFlag.matches(InputManifest.create(arguments(source, extern, "SIMPLE"), null)));
+	}
+
+	@Test
+	public void matchesWhenOnlyTheModificationTimeChanged() throws IOException {
+		File source = write(new File(folder.getRoot(), "src/app.js"), "var a;");
+		File extern = write(new File(folder.getRoot(), "externs/jquery.js"), "var $;");
+		InputManifest first = InputManifest.create(arguments(source, extern, "SIMPLE"), null);
+
+		assertTrue(source.setLastModified(source.lastModified() - 60000));
+		InputManifest touched = InputManifest.create(arguments(source, extern, "SIMPLE"), first);
+
+		assertTrue(touched.matches(first));
+		assertFalse(touched.isUpToDate(first));
+	}
+
+	@Test
+	public void neverMatchesMissingInputs() throws IOException {
+		File missing = new File(folder.getRoot(), "src/missing.js");
+		File extern = write(new File(folder.getRoot(), "externs/jquery.js"), "var $;");
+		InputManifest first = InputManifest.create(arguments(missing, extern, "SIMPLE"), null);
+
+		assertFalse(InputManifest.create(arguments(missing, extern, "SIMPLE"), first).matches(first));
+	}
+
+	@Test
+	public void survivesSaveAndLoad() throws IOException {
+		File source = write(new File(folder.getRoot(), "src/my app.js"), "var a;");
+		File extern = write(new File(folder.getRoot(), "externs/jquery.js"), "var $;");
+		InputManifest manifest = InputManifest.create(arguments(source, extern, "SIMPLE"), null);
+		File file = InputManifest.getManifestFile(new File(folder.getRoot(), "out/app.js"));
+		assertEquals(".app.js.manifest", file.getName());
+
+		manifest.save(file);
+		InputManifest loaded = InputManifest.load(file);
+
+		assertTrue(loaded.isUpToDate(manifest));
+		assertTrue(manifest.isUpToDate(loaded));
+	}
+
+	@Test
+	public void ignoresUnreadableManifests() throws IOException {
+		assertNull(InputManifest.load(new File(folder.getRoot(), "missing.manifest")));
+		assertNull(InputManifest.load(write(new File(folder.getRoot(), "other.manifest"), "something else\n")));
+		assertNull(InputManifest.load(write(new File(folder.getRoot(), "broken.manifest"),
+				"# nodejs-maven-plugin closure input manifest\njs 12 x hash /src/app.js\n")));
+	}
+
+	@Test
+	public void cacheKeysDoNotDependOnTheProjectLocation() throws IOException {
+		File[] checkouts = new File[2];
+		String[] cacheKeys = new String[2];
+		for (int i = 0; i < 2; i++) {
+			checkouts[i] = folder.newFolder("checkout" + i);
+			File source = write(new File(checkouts[i], "src/app.js"), "var a;");
+			File extern = write(new File(checkouts[i], "externs/jquery.js"), "var $;");
+			cacheKeys[i] = InputManifest.create(arguments(source, extern, "SIMPLE"), null).getCacheKey(checkouts[i]);
+		}
+
+		assertEquals(cacheKeys[0], cacheKeys[1]);
+	}
+}
@@ -0,0 +1,76 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonTest {
+
+	@Test
+	public void quotesAndEscapes() {
+		assertEquals("null", Json.quote(null));
+		assertEquals("\"\"", Json.quote(""));
+		assertEquals("\"a \\\"b\\\" \\\\ c\"", Json.quote("a \"b\" \\ c"));
+		assertEquals("\"1\\n2\\r3\\t4\"", Json.quote("1\n2\r3\t4"));
+		assertEquals("\"\\u0001\\u2028\"", Json.quote("\u0001\u2028"));
+		assertEquals("\"caf\u00e9\"", Json.quote("caf\u00e9"));
+	}
+
+	@Test
+	public void parsesWhatItQuotes() throws IOException {
+		Map<String, String> values = new LinkedHashMap<>();
+		values.put("app.js", "app.0123abcd.js");
+		values.put("we\"ird\\name\n", "\u0000\u2029\u00e9");
+		values.put("", "");
+
+		StringBuilder json = new StringBuilder("{");
+		String separator = "";
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			json.append(separator).append(Json.quote(entry.getKey())).append(": ").append(Json.quote(entry.getValue()));
+			separator = ",\n  ";
+		}
+		json.append("}");
+
+		assertEquals(values, Json.parseStringMap(json.toString()));
+	}
+
+	@Test
+	public void parsesEmptyObjectsAndWhitespace() throws IOException {
+		assertTrue(Json.parseStringMap(" { } \n").isEmpty());
+		assertEquals("\b\f/", Json.parseStringMap("{\"k\":\"\\b\\f\\/\"}").get("k"));
+	}
+
+	@Test
+	public void rejectsMalformedInput() {
+		for (String json : new String[]{"", "[]", "{\"a\": 1}", "{\"a\": \"b\"", "{\"a\": \"b}", "{\"a\": \"\\u12\"}", "{} {}", "{\"a\" \"b\"}"}) {
+			try {
+				Json.parseStringMap(json);
+				fail("Parsed " + json);
+			} catch (IOException expected) {
+				// expected
+			}
+		}
+	}
+}
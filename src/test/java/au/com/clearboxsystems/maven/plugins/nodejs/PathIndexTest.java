@@ -0,0 +1,88 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PathIndexTest {
+	private final Path root = Paths.get("/project").toAbsolutePath();
+
+	@Test
+	public void findsValuesOfThePathAndItsParentsOutermostFirst() {
+		PathIndex<String> index = new PathIndex<>();
+		index.add(root, "project");
+		index.add(root.resolve("src"), "src");
+		index.add(root.resolve("src/main/web"), "web");
+		index.add(root.resolve("target"), "target");
+
+		assertEquals(Arrays.asList("project", "src", "web"), index.find(root.resolve("src/main/web/app.js")));
+		assertEquals(Arrays.asList("project", "src"), index.find(root.resolve("src/test")));
+		assertEquals(Collections.emptyList(), index.find(Paths.get("/elsewhere/app.js").toAbsolutePath()));
+	}
+
+	@Test
+	public void doesNotMatchSiblingsSharingAPrefix() {
+		PathIndex<String> index = new PathIndex<>();
+		index.add(root.resolve("src"), "src");
+
+		assertEquals(Collections.emptyList(), index.find(root.resolve("src-gen/app.js")));
+	}
+
+	@Test
+	public void normalizesPaths() {
+		PathIndex<String> index = new PathIndex<>();
+		index.add(root.resolve("src/../lib"), "lib");
+
+		assertEquals(Collections.singletonList("lib"), index.find(root.resolve("lib/./a.js")));
+	}
+
+	@Test
+	public void registersEachValueOncePerPath() {
+		PathIndex<String> index = new PathIndex<>();
+		index.add(root, "a");
+		index.add(root, "a");
+		index.add(root, "b");
+
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList("a", "b"), index.find(root));
+	}
+
+	@Test
+	public void removesValuesAndPrunesEmptyBranches() {
+		PathIndex<String> index = new PathIndex<>();
+		index.add(root.resolve("src/main"), "main");
+		index.add(root.resolve("src"), "src");
+
+		assertTrue(index.remove(root.resolve("src/main"), "main"));
+		assertFalse(index.remove(root.resolve("src/main"), "main"));
+		assertFalse(index.remove(root.resolve("missing"), "src"));
+		assertEquals(1, index.size());
+		assertEquals(Collections.singletonList("src"), index.find(root.resolve("src/main/app.js")));
+
+		assertTrue(index.remove(root.resolve("src"), "src"));
+		assertEquals(0, index.size());
+		assertEquals(Collections.emptyList(), index.find(root.resolve("src")));
+	}
+}
@@ -0,0 +1,86 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrecompressorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Precompressor compressor = new Precompressor(new SystemStreamLog(), 1, "brotli");
+
+	private static String gunzip(File file) throws IOException {
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toString("UTF-8");
+		}
+	}
+
+	private void compress(File file) throws InterruptedException {
+		compressor.submit(file, true, false);
+		assertEquals(0, compressor.await());
+	}
+
+	@Test
+	public void rewritesTheCopyWhenTheContentChangesWhateverItsTimestamp() throws Exception {
+		File output = folder.newFile("app.js");
+		Files.write(output.toPath(), "var a = 1;".getBytes("UTF-8"));
+		File copy = new File(output.getPath() + ".gz");
+		compress(output);
+		assertEquals("var a = 1;", gunzip(copy));
+
+		Files.write(output.toPath(), "var a = 2;".getBytes("UTF-8"));
+		assertTrue(output.setLastModified(copy.lastModified() - 60000));
+		compress(output);
+
+		assertEquals("var a = 2;", gunzip(copy));
+	}
+
+	@Test
+	public void leavesTheCopyAloneWhenOnlyTheTimestampChanges() throws Exception {
+		File output = folder.newFile("app.js");
+		Files.write(output.toPath(), "var a = 1;".getBytes("UTF-8"));
+		File copy = new File(output.getPath() + ".gz");
+		compress(output);
+		assertTrue(copy.setLastModified(copy.lastModified() - 60000));
+		long written = copy.lastModified();
+
+		assertTrue(output.setLastModified(written + 120000));
+		compress(output);
+
+		assertEquals(written, copy.lastModified());
+	}
+}
@@ -0,0 +1,120 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SourceScannerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+
+	@Before
+	public void createTree() throws IOException {
+		root = folder.newFolder("src");
+		for (String name : new String[]{"app.js", "lib/util.js", "lib/deep/er/model.js", "lib/readme.txt", ".hidden.js",
+				"test/app-test.js", "node_modules/jquery/jquery.js", ".git/hooks/hook.js", "styles/main.css"}) {
+			File file = new File(root, name);
+			file.getParentFile().mkdirs();
+			assertTrue(file.createNewFile());
+		}
+	}
+
+	private List<String> scan(List<String> includes, List<String> excludes, boolean parallel) throws IOException {
+		List<String> relative = new ArrayList<>();
+		for (String path : new SourceScanner(includes, excludes, parallel).scan(root)) {
+			relative.add(root.toPath().relativize(new File(path).toPath()).toString().replace(File.separatorChar, '/'));
+		}
+		return relative;
+	}
+
+	@Test
+	public void findsJavascriptOutsideOfDependenciesAndDotfiles() throws IOException {
+		List<String> expected = Arrays.asList("app.js", "lib/deep/er/model.js", "lib/util.js", "test/app-test.js");
+
+		assertEquals(expected, scan(null, null, true));
+		assertEquals(expected, scan(null, null, false));
+	}
+
+	@Test
+	public void appliesIncludesAndExcludes() throws IOException {
+		for (boolean parallel : new boolean[]{true, false}) {
+			assertEquals(Arrays.asList("app.js", "lib/deep/er/model.js", "lib/util.js"),
+					scan(null, Arrays.asList("**/test/**"), parallel));
+			assertEquals(Arrays.asList("lib/deep/er/model.js", "lib/readme.txt", "lib/util.js"),
+					scan(Arrays.asList("lib/"), null, parallel));
+			assertEquals(Arrays.asList("styles/main.css"), scan(Arrays.asList("**/*.css"), null, parallel));
+		}
+	}
+
+	@Test
+	public void returnsSortedFilesOnceAcrossRoots() throws IOException {
+		File lib = new File(root, "lib");
+		File app = new File(root, "app.js");
+		File missing = new File(root, "missing");
+
+		List<String> files = new SourceScanner().scan(Arrays.asList(lib, app, root, missing));
+
+		List<String> sorted = new ArrayList<>(files);
+		Collections.sort(sorted);
+		assertEquals(sorted, files);
+		assertEquals(4, files.size());
+		assertTrue(files.contains(app.getAbsolutePath()));
+	}
+
+	@Test
+	public void skipsSymbolicLinkLoops() throws IOException {
+		try {
+			Files.createSymbolicLink(new File(root, "lib/loop").toPath(), root.toPath());
+		} catch (UnsupportedOperationException | IOException ex) {
+			return;
+		}
+
+		assertEquals(scan(null, null, false), scan(null, null, true));
+		assertTrue(scan(null, null, true).contains("lib/util.js"));
+	}
+
+	@Test
+	public void tellsWhichFilesAndDirectoriesAScanReads() {
+		SourceScanner scanner = new SourceScanner(Arrays.asList("lib/**/*.js"), Arrays.asList("**/deep/**"), false);
+		String separator = File.separator;
+
+		assertTrue(scanner.includesDirectory("lib"));
+		assertTrue(scanner.includesFile("lib" + separator + "util.js"));
+		assertFalse(scanner.includesFile("lib" + separator + ".util.js"));
+		assertFalse(scanner.includesFile("app.js"));
+		assertFalse(scanner.includesDirectory("lib" + separator + "deep"));
+		assertFalse(scanner.includesDirectory("styles"));
+		assertFalse(scanner.includesDirectory("lib" + separator + "node_modules"));
+	}
+}
@@ -0,0 +1,101 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class SourceWatcherTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SourceWatcher watcher;
+
+	@After
+	public void close() throws IOException {
+		if (watcher != null) {
+			watcher.close();
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+	}
+
+	private void assertReportsOnlySources(boolean poll) throws Exception {
+		File root = folder.getRoot();
+		File out = new File(root, "out");
+		new File(out, "sub").mkdirs();
+		new File(root, "node_modules/lib").mkdirs();
+		new File(root, "src").mkdirs();
+		NodeJsTask task = new NodeJsTask();
+		watcher = new SourceWatcher(new SystemStreamLog(), 50, poll);
+		watcher.watch(task, root, new SourceScanner(Arrays.asList("**"), SourceWatcher.DEFAULT_EXCLUDES, false), Collections.singletonList(out));
+
+		write(new File(out, "sub/a.js"), "a");
+		write(new File(out, "b.js"), "b");
+		write(new File(root, "node_modules/lib/index.js"), "c");
+		File source = new File(root, "src/app.js");
+		write(source, "d");
+
+		Map<Task, Set<File>> changes = watcher.take(200);
+
+		assertEquals(Collections.singleton(task), changes.keySet());
+		assertEquals(Collections.singleton(source.getAbsoluteFile()), changes.get(task));
+	}
+
+	@Test
+	public void reportsSourcesButNotOutputsOrNodeModules() throws Exception {
+		assertReportsOnlySources(false);
+	}
+
+	@Test
+	public void pollsWhenAskedTo() throws Exception {
+		assertReportsOnlySources(true);
+		assertEquals(0, watcher.getWatchedDirectoryCount());
+		assertEquals(1, watcher.getPolledTreeCount());
+	}
+
+	@Test
+	public void fileRootReportsOnlyThatFile() throws Exception {
+		File config = folder.newFile("config.json");
+		NodeJsTask task = new NodeJsTask();
+		watcher = new SourceWatcher(new SystemStreamLog(), 50, false);
+		watcher.watch(task, config, null, null);
+
+		write(new File(folder.getRoot(), "other.json"), "{}");
+		write(config, "{\"debug\": true}");
+
+		Map<Task, Set<File>> changes = watcher.take(200);
+
+		assertEquals(Collections.singleton(config.getAbsoluteFile()), changes.get(task));
+	}
+}
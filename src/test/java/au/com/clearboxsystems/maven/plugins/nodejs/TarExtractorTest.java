@@ -0,0 +1,200 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class TarExtractorTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Writes ustar archives
+	 */
+	private static class Tar {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		Tar directory(String name) {
+			return entry(name, '5', "", 0755, new byte[0]);
+		}
+
+		Tar file(String name, String content) {
+			return entry(name, '0', "", 0644, content.getBytes(UTF8));
+		}
+
+		Tar symlink(String name, String target) {
+			return entry(name, '2', target, 0777, new byte[0]);
+		}
+
+		Tar hardLink(String name, String target) {
+			return entry(name, '1', target, 0644, new byte[0]);
+		}
+
+		/**
+		 * A GNU long name entry followed by the entry it names
+		 */
+		Tar longFile(String name, String content) {
+			byte[] bytes = (name + "\0").getBytes(UTF8);
+			entry("././@LongLink", 'L', "", 0644, bytes);
+			return entry(name.substring(0, 90), '0', "", 0644, content.getBytes(UTF8));
+		}
+
+		Tar entry(String name, char type, String link, int mode, byte[] data) {
+			byte[] header = new byte[512];
+			put(header, 0, name);
+			put(header, 100, String.format("%07o", mode));
+			put(header, 108, "0000000");
+			put(header, 116, "0000000");
+			put(header, 124, String.format("%011o", data.length));
+			put(header, 136, String.format("%011o", 0));
+			Arrays.fill(header, 148, 156, (byte) ' ');
+			header[156] = (byte) type;
+			put(header, 157, link);
+			put(header, 257, "ustar");
+			put(header, 263, "00");
+			int checksum = 0;
+			for (byte b : header) {
+				checksum += b & 0xff;
+			}
+			put(header, 148, String.format("%06o", checksum));
+			header[154] = 0;
+			out.write(header, 0, header.length);
+			out.write(data, 0, data.length);
+			int padding = (512 - data.length % 512) % 512;
+			out.write(new byte[padding], 0, padding);
+			return this;
+		}
+
+		private static void put(byte[] header, int offset, String value) {
+			byte[] bytes = value.getBytes(UTF8);
+			System.arraycopy(bytes, 0, header, offset, bytes.length);
+		}
+
+		byte[] toByteArray() {
+			out.write(new byte[1024], 0, 1024);
+			return out.toByteArray();
+		}
+	}
+
+	private Path target;
+
+	private void extract(Tar tar) throws IOException {
+		target = new File(folder.getRoot(), "out").toPath();
+		new TarExtractor().extract(new ByteArrayInputStream(tar.toByteArray()), target);
+	}
+
+	private String read(String name) throws IOException {
+		return new String(Files.readAllBytes(target.resolve(name)), UTF8);
+	}
+
+	@Test
+	public void extractsFilesDirectoriesAndLinks() throws IOException {
+		String longName = "node-v0.8.19/lib/node_modules/npm/node_modules/a-package-with-a-rather-long-name/lib/index.js";
+		extract(new Tar()
+				.directory("node-v0.8.19/")
+				.directory("node-v0.8.19/bin/")
+				.file("node-v0.8.19/bin/node", "binary")
+				.symlink("node-v0.8.19/bin/npm", "../lib/npm-cli.js")
+				.file("node-v0.8.19/lib/npm-cli.js", "cli")
+				.hardLink("node-v0.8.19/lib/copy.js", "node-v0.8.19/lib/npm-cli.js")
+				.longFile(longName, "long"));
+
+		assertEquals("binary", read("node-v0.8.19/bin/node"));
+		assertTrue(Files.isSymbolicLink(target.resolve("node-v0.8.19/bin/npm")));
+		assertEquals("cli", read("node-v0.8.19/bin/npm"));
+		assertEquals("cli", read("node-v0.8.19/lib/copy.js"));
+		assertEquals("long", read(longName));
+	}
+
+	@Test
+	public void rejectsEntriesOutsideTheTarget() throws IOException {
+		assertRejected(new Tar().file("../escaped.js", "x"));
+		assertRejected(new Tar().file("a/../../escaped.js", "x"));
+		assertFalse(new File(folder.getRoot(), "escaped.js").exists());
+	}
+
+	@Test
+	public void rejectsSymlinksOutOfTheTarget() throws IOException {
+		File outside = folder.newFolder("outside");
+		assertRejected(new Tar().symlink("evil", outside.getAbsolutePath()).file("evil/passwd", "x"));
+		assertRejected(new Tar().symlink("dir/evil", "../../outside").file("dir/evil/passwd", "x"));
+		assertEquals(0, outside.list().length);
+	}
+
+	@Test
+	public void rejectsHardLinksToFilesOutsideTheTarget() throws IOException {
+		File secret = folder.newFile("secret");
+		Files.write(secret.toPath(), "secret".getBytes(UTF8));
+		assertRejected(new Tar().hardLink("copy", "../secret"));
+		assertFalse(Files.exists(target.resolve("copy")));
+	}
+
+	@Test
+	public void doesNotWriteThroughAnEarlierSymlink() throws IOException {
+		extract(new Tar()
+				.file("real.js", "original")
+				.symlink("link.js", "real.js")
+				.file("link.js", "replaced"));
+
+		assertEquals("original", read("real.js"));
+		assertFalse(Files.isSymbolicLink(target.resolve("link.js")));
+		assertEquals("replaced", read("link.js"));
+	}
+
+	@Test
+	public void keepsExecutableBits() throws IOException {
+		assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		extract(new Tar()
+				.entry("run.sh", '0', "", 0755, "#!/bin/sh".getBytes(UTF8))
+				.entry("data.txt", '0', "", 0644, new byte[0]));
+
+		assertTrue(Files.getPosixFilePermissions(target.resolve("run.sh")).contains(PosixFilePermission.OWNER_EXECUTE));
+		assertFalse(Files.getPosixFilePermissions(target.resolve("data.txt")).contains(PosixFilePermission.OWNER_EXECUTE));
+		assertArrayEquals("#!/bin/sh".getBytes(UTF8), Files.readAllBytes(target.resolve("run.sh")));
+	}
+
+	private void assertRejected(Tar tar) {
+		try {
+			extract(tar);
+			fail("Extracted an archive with an entry outside of the target");
+		} catch (IOException expected) {
+			// expected
+		}
+	}
+}
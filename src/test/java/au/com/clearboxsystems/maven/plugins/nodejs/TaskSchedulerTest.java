@@ -0,0 +1,186 @@
+package au.com.clearboxsystems.maven.plugins.nodejs;
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TaskSchedulerTest {
+
+	private static Task task(String id, String... dependsOn) {
+		Task task = new Task();
+		task.id = id;
+		task.dependsOn = dependsOn.length > 0 ? Arrays.asList(dependsOn) : null;
+		return task;
+	}
+
+	/**
+	 * Records the tasks it runs, failing those named in failing
+	 */
+	private static class Recorder implements TaskScheduler.TaskExecutor {
+		final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+		private int running;
+		int mostRunning;
+		private final List<String> failing;
+
+		Recorder(String... failing) {
+			this.failing = Arrays.asList(failing);
+		}
+
+		@Override
+		public void execute(Task task) throws Exception {
+			started.add(task.getDisplayName());
+			synchronized (this) {
+				mostRunning = Math.max(mostRunning, ++running);
+			}
+			try {
+				Thread.sleep(20);
+				if (failing.contains(task.getDisplayName())) {
+					throw new IllegalStateException(task.getDisplayName() + " failed");
+				}
+			} finally {
+				synchronized (this) {
+					running--;
+				}
+				finished.add(task.getDisplayName());
+			}
+		}
+	}
+
+	@Test
+	public void runsTasksWithoutIdsOneAfterAnotherInOrder() throws Exception {
+		List<Task> tasks = Arrays.asList(new Task(), new NodeJsTask(), new ClosureCompilerTask());
+		Recorder recorder = new Recorder();
+
+		List<TaskScheduler.Failure> failures = new TaskScheduler(tasks, tasks, 4).run(recorder);
+
+		assertTrue(failures.isEmpty());
+		assertEquals(Arrays.asList("Task", "NodeJsTask", "ClosureCompilerTask"), recorder.started);
+		assertEquals(1, recorder.mostRunning);
+	}
+
+	@Test
+	public void startsTasksOnceTheirDependenciesSucceeded() throws Exception {
+		List<Task> tasks = Arrays.asList(task("bundle", "compile", "styles"), task("compile", "install"), task("styles"), task("install"));
+		Recorder recorder = new Recorder();
+
+		List<TaskScheduler.Failure> failures = new TaskScheduler(tasks, tasks, 4).run(recorder);
+
+		assertTrue(failures.isEmpty());
+		assertEquals(4, recorder.finished.size());
+		assertTrue(recorder.finished.indexOf("install") < recorder.started.indexOf("compile"));
+		assertTrue(recorder.finished.indexOf("compile") < recorder.started.indexOf("bundle"));
+		assertTrue(recorder.finished.indexOf("styles") < recorder.started.indexOf("bundle"));
+		assertEquals(2, recorder.mostRunning);
+	}
+
+	@Test
+	public void skipsTheDependentsOfAFailedTask() throws Exception {
+		List<Task> tasks = Arrays.asList(task("install"), task("compile", "install"), task("bundle", "compile"), task("styles"));
+		Recorder recorder = new Recorder("install");
+
+		List<TaskScheduler.Failure> failures = new TaskScheduler(tasks, tasks, 2).run(recorder);
+
+		assertEquals(1, failures.size());
+		assertSame(tasks.get(0), failures.get(0).task);
+		assertEquals("install failed", failures.get(0).cause.getMessage());
+		assertFalse(failures.get(0).cancelled);
+		assertEquals(Arrays.asList("install", "styles"), sorted(recorder.started));
+	}
+
+	@Test
+	public void dependenciesOutsideOfTheRunAreSatisfied() throws Exception {
+		Task install = task("install");
+		Task compile = task("compile", "install");
+		Recorder recorder = new Recorder();
+
+		new TaskScheduler(Arrays.asList(compile), Arrays.asList(install, compile), 2).run(recorder);
+
+		assertEquals(Arrays.asList("compile"), recorder.started);
+	}
+
+	@Test
+	public void failFastInterruptsRunningTasksAndStartsNoOthers() throws Exception {
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		List<Task> tasks = Arrays.asList(task("slow"), task("failing"), task("queued"));
+		final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+		TaskScheduler scheduler = new TaskScheduler(tasks, tasks, 2);
+		scheduler.setFailFast(true);
+
+		long start = System.nanoTime();
+		List<TaskScheduler.Failure> failures = scheduler.run(new TaskScheduler.TaskExecutor() {
+			@Override
+			public void execute(Task task) throws Exception {
+				started.add(task.id);
+				if (task.id.equals("slow")) {
+					slowStarted.countDown();
+					Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+				} else if (task.id.equals("failing")) {
+					assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+					throw new IllegalStateException("failing failed");
+				}
+			}
+		});
+
+		assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+		assertTrue(scheduler.isCancelled());
+		assertEquals(Arrays.asList("failing", "slow"), sorted(started));
+		assertEquals(2, failures.size());
+		assertSame(tasks.get(1), failures.get(0).task);
+		assertFalse(failures.get(0).cancelled);
+		assertSame(tasks.get(0), failures.get(1).task);
+		assertTrue(failures.get(1).cancelled);
+		assertTrue(failures.get(1).cause instanceof InterruptedException);
+	}
+
+	@Test
+	public void rejectsInvalidGraphs() {
+		assertRejected(Arrays.asList(task("a", "b"), task("b", "a")));
+		assertRejected(Arrays.asList(task("a", "a")));
+		assertRejected(Arrays.asList(task("a", "missing")));
+		assertRejected(Arrays.asList(task("a"), task("a")));
+	}
+
+	private static void assertRejected(List<Task> tasks) {
+		try {
+			new TaskScheduler(tasks, tasks, 2).run(new Recorder());
+			fail("Ran " + tasks);
+		} catch (MojoExecutionException expected) {
+			// expected
+		}
+	}
+
+	private static List<String> sorted(List<String> values) {
+		List<String> sorted = new ArrayList<>(values);
+		Collections.sort(sorted);
+		return sorted;
+	}
+}